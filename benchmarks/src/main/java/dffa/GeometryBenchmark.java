@@ -0,0 +1,92 @@
+/*************************************************************************
+ *  Dependencies: JMH, toxiclibscore.jar and the application sources
+ *
+ *  Benchmarks of the per reset and per frame geometry work: building a
+ *  topology (topologyBuilder) and building the TriangleMesh the way 
+ *  drawMeshGrid() does every frame.
+ *************************************************************************/
+
+package dffa;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import toxi.geom.Vec3D;
+import toxi.geom.mesh.TriangleMesh;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GeometryBenchmark {
+    
+    @Param({ "8", "32", "128", "512", "1000" })
+    public int n;
+    
+    @Param({ "0", "1", "2", "3" })
+    public int type;
+    
+    private int numW_, numH_;
+    private Vec3D[] points_;
+    
+    @Setup
+    public void setup() {
+        FormBuilder builder = new FormBuilder(type, n, n);
+        builder.buildTopology();
+        numW_ = builder.numW();
+        numH_ = builder.numH();
+        points_ = builder.buildGeometry();
+    }
+    
+    @Benchmark
+    public Topology buildTopology() {
+        FormBuilder builder = new FormBuilder(type, n, n);
+        builder.setRandom(new Random(0));
+        return builder.buildTopology();
+    }
+    
+    // the mesh construction of drawMeshGrid()
+    @Benchmark
+    public TriangleMesh buildTriangleMesh() {
+        TriangleMesh mesh = new TriangleMesh();
+        int numW = numW_, numH = numH_;
+        Vec3D[] points = points_;
+        
+        for (int y = 0; y < numW - 1; y++) {
+            for (int x = 0; x < numH - 1; x++) {
+                int i = y * numW + x;
+                Vec3D p0 = points[i];
+                Vec3D p1 = points[i + 1];
+                Vec3D p2 = points[i + 1 + numW];
+                Vec3D p3 = points[i + numW];
+                
+                if (type != 3) {
+                    mesh.addFace(p0, p3, p2);
+                    mesh.addFace(p0, p2, p1);
+                } else {
+                    Vec3D p4 = points[numW * numH + y * (numW - 1) + x];
+                    mesh.addFace(p0, p4, p3);
+                    mesh.addFace(p0, p4, p1);
+                    mesh.addFace(p1, p4, p2);
+                    mesh.addFace(p2, p4, p3);
+                }
+            }
+        }
+        return mesh;
+    }
+    
+}
@@ -0,0 +1,101 @@
+/*************************************************************************
+ *  Dependencies: JMH, toxiclibscore.jar and the application sources
+ *
+ *  Benchmarks of one simulation step and its parts, for the Vec3D state
+ *  used by the application and for the primitive state, over grid size
+ *  and topology type. Run with -prof gc to see the allocation rate per
+ *  operation next to the throughput.
+ *************************************************************************/
+
+package dffa;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import toxi.geom.Vec3D;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SimulationBenchmark {
+    
+    @Param({ "8", "32", "128", "512", "1000" })
+    public int n;
+    
+    @Param({ "0", "1", "2", "3" })
+    public int type;
+    
+    private MassSpringSystem legacy_;     // Vec3D state, as in the application
+    private MassSpringSystem primitive_;  // flat arrays
+    private OdeSolver ode_;
+    private OdeSolver semi_;
+    private float h_;
+    
+    // fresh systems for every iteration, so the Vec3D path cannot drift away
+    @Setup(Level.Iteration)
+    public void setup() {
+        FormBuilder builder = new FormBuilder(type, n, n);
+        builder.setRandom(new Random(0));
+        Topology topology = builder.buildTopology();
+        Vec3D[] geometry = builder.buildGeometry();
+        int[] fixed = builder.cornerSupports();
+        
+        legacy_ = new MassSpringSystem(topology);
+        legacy_.initialize(geometry, fixed);
+        legacy_.setupSprings(0.07f, -0.0004f);
+        
+        primitive_ = new MassSpringSystem(topology, true);
+        primitive_.initialize(geometry, fixed);
+        primitive_.setupSprings(0.07f, -0.0004f);
+        
+        ode_ = new OdeSolver();
+        semi_ = new OdeSolver(new SemiImplicitEuler());
+        h_ = DynamicRelaxation.stableTimeStep(primitive_);
+    }
+    
+    @Benchmark
+    public float[] computeForcesPrimitive() {
+        primitive_.computeForces(primitive_.getPositions(), primitive_.getVelocities());
+        return primitive_.getForces();
+    }
+    
+    @Benchmark
+    public Vec3D[] evalFLegacy() {
+        return legacy_.evalF(legacy_.getState());
+    }
+    
+    // one step as DynamicFormFindingAPI takes it
+    @Benchmark
+    public void takeStepLegacy() {
+        legacy_.setState(ode_.takeStep(legacy_, 0.0001f));
+    }
+    
+    @Benchmark
+    public float takeStepPrimitive() {
+        return semi_.takeStepInPlace(primitive_, h_);
+    }
+    
+    @Benchmark
+    public void getSumFL(Blackhole bh) {
+        bh.consume(legacy_.getSumFL());
+        bh.consume(primitive_.getSumFL());
+    }
+    
+}
@@ -0,0 +1,78 @@
+/*************************************************************************
+ *  Dependencies: JMH, toxiclibscore.jar and the application sources,
+ *                jdk.incubator.vector (built by the vector profile)
+ *
+ *  Primitive force evaluation with the scalar spring loop against the
+ *  SIMD spring kernel, over grid size and topology type. The forked JVM
+ *  resolves jdk.incubator.vector; should the kernel still be unavailable
+ *  both benchmarks measure the scalar loop, see SpringKernel.vectorized().
+ *************************************************************************/
+
+package dffa;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import toxi.geom.Vec3D;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class SpringKernelBenchmark {
+    
+    @Param({ "32", "128", "512", "1000" })
+    public int n;
+    
+    @Param({ "0", "3" })
+    public int type;
+    
+    private MassSpringSystem scalar_;
+    private MassSpringSystem vector_;
+    
+    @Setup
+    public void setup() {
+        scalar_ = build();
+        vector_ = build();
+        vector_.setSpringKernel(SpringKernel.vectorized());
+    }
+    
+    private MassSpringSystem build() {
+        FormBuilder builder = new FormBuilder(type, n, n);
+        builder.setRandom(new Random(0));
+        Topology topology = builder.buildTopology();
+        Vec3D[] geometry = builder.buildGeometry();
+        
+        MassSpringSystem mss = new MassSpringSystem(topology, true);
+        mss.initialize(geometry, builder.cornerSupports());
+        mss.setupSprings(0.07f, -0.0004f);
+        return mss;
+    }
+    
+    @Benchmark
+    public float[] computeForcesScalar() {
+        scalar_.computeForces(scalar_.getPositions(), scalar_.getVelocities());
+        return scalar_.getForces();
+    }
+    
+    @Benchmark
+    public float[] computeForcesVector() {
+        vector_.computeForces(vector_.getPositions(), vector_.getVelocities());
+        return vector_.getForces();
+    }
+    
+}
@@ -0,0 +1,210 @@
+/*************************************************************************
+ *  Dependencies: MassSpringSystem.java  Constraints.java  Integrator.java
+ *
+ *  Implicit (backward Euler) integrator for stiff spring constants. 
+ *  The forces are linearized about the current state, which gives one
+ *  sparse linear system per step for the velocity change dv:
+ *
+ *      (M (1 - h D) - h^2 K) dv = h (M F + h K v)
+ *
+ *  where M holds the masses, D the viscous coefficient and K the spring
+ *  stiffness matrix. K is never formed: each spring contributes a 3x3 
+ *  block which is computed once per step and applied in a matrix-free 
+ *  product. The system is symmetric positive definite (the transverse 
+ *  stiffness of compressed springs is clamped to zero) and is solved by
+ *  a Jacobi preconditioned conjugate gradient, with constrained 
+ *  coordinates filtered out of the search space.
+ *
+ *  Stable for steps far beyond the explicit limit.
+ *************************************************************************/
+
+public class BackwardEuler implements Integrator {
+    
+    private int maxIterations_;
+    private float tolerance_;        // relative residual for the CG solve
+    private int iterations_;         // CG iterations of the last step
+    
+    // per spring stiffness: c, transverse factor and unit direction
+    private float[] sc_, sb_, su_;
+    
+    // CG vectors (size 3 * M) and Jacobi preconditioner
+    private float[] x_, r_, z_, p_, q_, b_, diag_;
+    
+    public BackwardEuler() {
+        this(200, 1e-4f);
+    }
+    
+    public BackwardEuler(int maxIterations, float tolerance) {
+        maxIterations_ = maxIterations;
+        tolerance_ = tolerance;
+    }
+    
+    private void ensureCapacity(int n, int S) {
+        sc_ = Integrator.ensure(sc_, S);
+        sb_ = Integrator.ensure(sb_, S);
+        su_ = Integrator.ensure(su_, 3 * S);
+        x_ = Integrator.ensure(x_, n);  r_ = Integrator.ensure(r_, n);
+        z_ = Integrator.ensure(z_, n);  p_ = Integrator.ensure(p_, n);
+        q_ = Integrator.ensure(q_, n);  b_ = Integrator.ensure(b_, n);
+        diag_ = Integrator.ensure(diag_, n);
+    }
+    
+    // y = K v accumulated with weight w, i.e. y += w * K v
+    private void addStiffness(MassSpringSystem mss, float[] v, float[] y, float w) {
+        int[] from = mss.getSpringFrom();
+        int[] to = mss.getSpringTo();
+        for (int s = 0, S = mss.getNumSprings(); s < S; s++) {
+            int a = from[s] * 3, b = to[s] * 3;
+            float dx = v[b] - v[a], dy = v[b + 1] - v[a + 1], dz = v[b + 2] - v[a + 2];
+            float ux = su_[s*3], uy = su_[s*3 + 1], uz = su_[s*3 + 2];
+            float c = sc_[s], beta = sb_[s];
+            
+            // Ks d = c (u (u.d) + beta (d - u (u.d)))
+            float ud = ux * dx + uy * dy + uz * dz;
+            float kx = c * (beta * dx + (1f - beta) * ux * ud);
+            float ky = c * (beta * dy + (1f - beta) * uy * ud);
+            float kz = c * (beta * dz + (1f - beta) * uz * ud);
+            
+            y[a]     += w * kx;  y[a + 1] += w * ky;  y[a + 2] += w * kz;
+            y[b]     -= w * kx;  y[b + 1] -= w * ky;  y[b + 2] -= w * kz;
+        }
+    }
+    
+    // y = A v with A = M (1 - h D) - h^2 K, constrained coordinates zeroed
+    private void multiply(MassSpringSystem mss, float[] v, float[] y, float h, byte[] mask) {
+        float[] invMass = mss.getInverseMasses();
+        float damp = 1f - h * mss.getForceFields().getDrag();
+        for (int i = 0, m = mss.getNumMasses(); i < m; i++) {
+            float mi = damp / invMass[i];
+            y[i*3] = mi * v[i*3];  y[i*3 + 1] = mi * v[i*3 + 1];  y[i*3 + 2] = mi * v[i*3 + 2];
+        }
+        addStiffness(mss, v, y, -h * h);
+        filter(mss, y, mask);
+    }
+    
+    private static void filter(MassSpringSystem mss, float[] v, byte[] mask) {
+        for (int i = 0, m = mss.getNumMasses(); i < m; i++) {
+            int c = mask[i];
+            if (c == 0) continue;
+            if ((c & Constraints.FIX_X) != 0) v[i*3]     = 0f;
+            if ((c & Constraints.FIX_Y) != 0) v[i*3 + 1] = 0f;
+            if ((c & Constraints.FIX_Z) != 0) v[i*3 + 2] = 0f;
+        }
+    }
+    
+    private static float dot(float[] a, float[] b, int n) {
+        double sum = 0;
+        for (int i = 0; i < n; i++) sum += a[i] * b[i];
+        return (float) sum;
+    }
+    
+    public float step(MassSpringSystem mss, final float h) {
+        float[] pos = mss.getPositions();
+        float[] vel = mss.getVelocities();
+        float[] frc = mss.getForces();
+        float[] invMass = mss.getInverseMasses();
+        
+        Constraints con = mss.getConstraints();
+        byte[] mask = con.getMask();
+        
+        int M = mss.getNumMasses();
+        int S = mss.getNumSprings();
+        int n = 3 * M;
+        ensureCapacity(n, S);
+        
+        mss.computeForces(pos, vel);
+        
+        // spring stiffness blocks at the current state
+        int[] from = mss.getSpringFrom();
+        int[] to = mss.getSpringTo();
+        float[] ks = mss.getSpringConstants();
+        float[] rest = mss.getRestLengths();
+        for (int s = 0; s < S; s++) {
+            int a = from[s] * 3, b = to[s] * 3;
+            float dx = pos[b] - pos[a], dy = pos[b + 1] - pos[a + 1], dz = pos[b + 2] - pos[a + 2];
+            float dist = (float) Math.sqrt(dx*dx + dy*dy + dz*dz) + 1e-6f;
+            su_[s*3] = dx / dist;  su_[s*3 + 1] = dy / dist;  su_[s*3 + 2] = dz / dist;
+            sc_[s] = ks[s] / (invMass[from[s]] + invMass[to[s]]);
+            sb_[s] = Math.max(0f, 1f - rest[s] / dist);
+        }
+        
+        // right hand side b = h (M F + h K v)
+        for (int i = 0; i < M; i++) {
+            float mi = 1f / invMass[i];
+            b_[i*3] = h * mi * frc[i*3];  b_[i*3 + 1] = h * mi * frc[i*3 + 1];  b_[i*3 + 2] = h * mi * frc[i*3 + 2];
+        }
+        addStiffness(mss, vel, b_, h * h);
+        filter(mss, b_, mask);
+        
+        // Jacobi preconditioner, diagonal of A
+        float damp = 1f - h * mss.getForceFields().getDrag();
+        for (int i = 0; i < M; i++) {
+            float mi = damp / invMass[i];
+            diag_[i*3] = mi;  diag_[i*3 + 1] = mi;  diag_[i*3 + 2] = mi;
+        }
+        for (int s = 0; s < S; s++) {
+            int a = from[s] * 3, b = to[s] * 3;
+            float c = sc_[s], beta = sb_[s];
+            for (int k = 0; k < 3; k++) {
+                float u = su_[s*3 + k];
+                float kk = h * h * c * (beta + (1f - beta) * u * u);
+                diag_[a + k] += kk;
+                diag_[b + k] += kk;
+            }
+        }
+        
+        // preconditioned conjugate gradient, starting from dv = 0
+        java.util.Arrays.fill(x_, 0, n, 0f);
+        System.arraycopy(b_, 0, r_, 0, n);
+        for (int i = 0; i < n; i++) z_[i] = r_[i] / diag_[i];
+        System.arraycopy(z_, 0, p_, 0, n);
+        
+        float rz = dot(r_, z_, n);
+        float bnorm = (float) Math.sqrt(dot(b_, b_, n));
+        float stop = tolerance_ * Math.max(bnorm, 1e-20f);
+        
+        iterations_ = 0;
+        while (iterations_ < maxIterations_ && Math.sqrt(dot(r_, r_, n)) > stop) {
+            multiply(mss, p_, q_, h, mask);
+            float pq = dot(p_, q_, n);
+            if (pq <= 0f) break;
+            float alpha = rz / pq;
+            for (int i = 0; i < n; i++) {
+                x_[i] += alpha * p_[i];
+                r_[i] -= alpha * q_[i];
+            }
+            for (int i = 0; i < n; i++) z_[i] = r_[i] / diag_[i];
+            float rzNew = dot(r_, z_, n);
+            float beta = rzNew / rz;
+            rz = rzNew;
+            for (int i = 0; i < n; i++) p_[i] = z_[i] + beta * p_[i];
+            iterations_++;
+        }
+        
+        // v += dv, x += h v
+        for (int i = 0; i < M; i++) {
+            int a = i * 3;
+            vel[a]     += x_[a];
+            vel[a + 1] += x_[a + 1];
+            vel[a + 2] += x_[a + 2];
+            pos[a]     += vel[a] * h;
+            pos[a + 1] += vel[a + 1] * h;
+            pos[a + 2] += vel[a + 2] * h;
+            
+            if (mask[i] != 0) con.apply(i, pos, vel);
+        }
+        return h;
+    }
+    
+    // Setters
+    
+    public void setMaxIterations(int maxIterations) {  maxIterations_ = maxIterations;  }
+    public void setTolerance(float tolerance) {  tolerance_ = tolerance;  }
+    
+    // Getters
+    
+    public int getIterations() {  return iterations_;  }
+    
+    public static void main(String[] args) { }
+    
+}
@@ -0,0 +1,117 @@
+/*************************************************************************
+ *  Dependencies: none
+ *
+ *  Buffered little endian writer over a FileChannel. Values are packed
+ *  into one direct byte buffer that is drained into the channel whenever
+ *  it fills up, so large arrays are written in a few big writes and the
+ *  memory used does not depend on the size of the file.
+ *************************************************************************/
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+public class ChannelWriter implements Closeable {
+
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private FileChannel channel_;
+    private final ByteBuffer buf_;
+
+    // creates or truncates the file
+    public ChannelWriter(String file) throws IOException {
+        this(Paths.get(file));
+    }
+
+    public ChannelWriter(Path path) throws IOException {
+        channel_ = FileChannel.open(path, StandardOpenOption.CREATE,
+                                          StandardOpenOption.TRUNCATE_EXISTING,
+                                          StandardOpenOption.WRITE);
+        buf_ = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     *  Makes room for a record of n bytes (at most 1 MB) and returns the
+     *  buffer to put it into
+     */
+    public ByteBuffer reserve(int n) throws IOException {
+        if (buf_.remaining() < n) drain();
+        return buf_;
+    }
+
+    public void putInt(int v) throws IOException       {  reserve(4).putInt(v);  }
+    public void putLong(long v) throws IOException     {  reserve(8).putLong(v);  }
+    public void putFloat(float v) throws IOException   {  reserve(4).putFloat(v);  }
+    public void putDouble(double v) throws IOException {  reserve(8).putDouble(v);  }
+
+    // ASCII text, e.g. a magic or a header
+    public void putAscii(CharSequence s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            if (!buf_.hasRemaining()) drain();
+            buf_.put((byte) s.charAt(i));
+        }
+    }
+
+    public void put(byte[] a, int off, int len) throws IOException {
+        while (len > 0) {
+            if (!buf_.hasRemaining()) drain();
+            int n = Math.min(len, buf_.remaining());
+            buf_.put(a, off, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    // bulk copies through a view of the buffer, one chunk per drain
+    public void put(int[] a, int off, int len) throws IOException {
+        while (len > 0) {
+            if (buf_.remaining() < 4) drain();
+            int n = Math.min(len, buf_.remaining() / 4);
+            buf_.asIntBuffer().put(a, off, n);
+            buf_.position(buf_.position() + 4 * n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    public void put(float[] a, int off, int len) throws IOException {
+        while (len > 0) {
+            if (buf_.remaining() < 4) drain();
+            int n = Math.min(len, buf_.remaining() / 4);
+            buf_.asFloatBuffer().put(a, off, n);
+            buf_.position(buf_.position() + 4 * n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    // bytes written so far, including those still buffered
+    public long position() throws IOException {
+        return channel_.position() + buf_.position();
+    }
+
+    private void drain() throws IOException {
+        buf_.flip();
+        while (buf_.hasRemaining()) channel_.write(buf_);
+        buf_.clear();
+    }
+
+    // writes what is left and closes the channel
+    public void close() throws IOException {
+        if (channel_ == null) return;
+        try {
+            drain();
+        } finally {
+            channel_.close();
+            channel_ = null;
+        }
+    }
+
+    public static void main(String[] args) { }
+
+}
@@ -0,0 +1,238 @@
+/*************************************************************************
+ *  Dependencies: toxiclibscore.jar MassSpringSystem.java Topology.java
+ *                Constraints.java ForceFields.java ChannelWriter.java
+ *                TextTokenizer.java
+ *
+ *  Binary checkpoint of a mass spring system, enough to resume a run
+ *  without simulating again from the flat grid: the topology, positions,
+ *  velocities, masses, per-spring constants and rest lengths, the
+ *  constraint masks and targets, the force fields and the solver's time
+ *  and step count. Files are written through a ChannelWriter and read 
+ *  back from a memory mapping with bulk copies.
+ *
+ *  Layout, all little endian:
+ *      "DFCP", int version (2), int flags (1 = primitive mode),
+ *      int M, int E, double time, long steps,
+ *      int enabled fields, float gravity x, y, z, drag, pressure,
+ *      float wind x, y, z, int F surface indices, int L point loads,
+ *      E pairs of int from, int to,
+ *      float positions[3M], velocities[3M], masses[M],
+ *      float spring constants[E], rest lengths[E],
+ *      byte constraint masks[M], float constraint targets[3M],
+ *      int surface[F], int loaded particles[L], float loads[3L]
+ *
+ *  Version 1 files, which held gravity z in place of the force fields,
+ *  are still read; their other fields get the defaults.
+ *************************************************************************/
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+import toxi.geom.Vec3D;
+
+public class Checkpoint {
+
+    // first bytes of a checkpoint file
+    public static final String MAGIC = "DFCP";
+    public static final int VERSION = 2;
+
+    private static final int PRIMITIVE = 1;
+
+    private MassSpringSystem system_;
+    private double time_;
+    private long steps_;
+
+    private Checkpoint(MassSpringSystem system, double time, long steps) {
+        system_ = system;
+        time_ = time;
+        steps_ = steps;
+    }
+
+    /**
+     *  Writes the system and the solver's time and step count. The file
+     *  is written next to its final name and moved into place when
+     *  complete, so an interrupted save never replaces a good checkpoint.
+     */
+    public static void write(MassSpringSystem mss, double time, long steps, String file) throws IOException {
+        int M = mss.getNumMasses();
+        int E = mss.getNumSprings();
+        Topology topology = mss.getTopology();
+        Constraints con = mss.getConstraints();
+        if (E != topology.E()) {
+            throw new IllegalStateException("springs are not set up for every edge");
+        }
+
+        float[] buf = new float[3 * M];
+        float[] ks = new float[E], rest = new float[E];
+        mss.copySpringParameters(ks, rest);
+
+        Path target = Paths.get(file);
+        Path tmp = Paths.get(file + ".tmp");
+
+        try (ChannelWriter out = new ChannelWriter(tmp)) {
+            out.putAscii(MAGIC);
+            out.putInt(VERSION);
+            out.putInt(mss.isPrimitive() ? PRIMITIVE : 0);
+            out.putInt(M);
+            out.putInt(E);
+            out.putDouble(time);
+            out.putLong(steps);
+
+            ForceFields fields = mss.getForceFields();
+            int[] surface = fields.getSurface();
+            int F = (surface != null) ? surface.length : 0;
+            int L = fields.getNumPointLoads();
+            Vec3D g = fields.getGravity(), w = fields.getWind();
+            out.putInt(fields.getEnabled());
+            out.putFloat(g.x);  out.putFloat(g.y);  out.putFloat(g.z);
+            out.putFloat(fields.getDragCoefficient());
+            out.putFloat(fields.getPressure());
+            out.putFloat(w.x);  out.putFloat(w.y);  out.putFloat(w.z);
+            out.putInt(F);
+            out.putInt(L);
+
+            for (int e = 0; e < E; e++) {
+                out.reserve(8).putInt(topology.from(e)).putInt(topology.to(e));
+            }
+
+            mss.copyPositions(buf);
+            out.put(buf, 0, 3 * M);
+            mss.copyVelocities(buf);
+            out.put(buf, 0, 3 * M);
+            out.put(mss.getMasses(), 0, M);
+            out.put(ks, 0, E);
+            out.put(rest, 0, E);
+            out.put(con.getMask(), 0, M);
+            out.put(con.getTargets(), 0, 3 * M);
+
+            int[] nodes = new int[L];
+            float[] loads = new float[3 * L];
+            fields.copyPointLoads(nodes, loads);
+            if (F > 0) out.put(surface, 0, F);
+            out.put(nodes, 0, L);
+            out.put(loads, 0, 3 * L);
+        }
+
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     *  Rebuilds the system stored in a checkpoint file, in the storage
+     *  mode it was written from.
+     *
+     *  @throws java.io.UncheckedIOException if the file cannot be read
+     *  @throws java.lang.IllegalArgumentException if it is not a checkpoint
+     */
+    public static Checkpoint read(String file) {
+        ByteBuffer buf;
+        try {
+            buf = TextTokenizer.map(Paths.get(file));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (!TextTokenizer.startsWith(buf, MAGIC)) {
+            throw new IllegalArgumentException(file + " is not a checkpoint");
+        }
+
+        buf.position(MAGIC.length());
+        int version = buf.getInt();
+        if (version != 1 && version != VERSION) {
+            throw new IllegalArgumentException("unsupported checkpoint version " + version);
+        }
+        int flags = buf.getInt();
+        int M = buf.getInt();
+        int E = buf.getInt();
+        double time = buf.getDouble();
+        long steps = buf.getLong();
+
+        // force fields, version 1 held only gravity z
+        ForceFields fields = new ForceFields(M);
+        int F = 0, L = 0;
+        if (version == 1) {
+            fields.setGravity(0f, 0f, buf.getFloat());
+        } else {
+            fields.setEnabled(buf.getInt());
+            fields.setGravity(buf.getFloat(), buf.getFloat(), buf.getFloat());
+            fields.setDrag(buf.getFloat());
+            float pressure = buf.getFloat();
+            float wx = buf.getFloat(), wy = buf.getFloat(), wz = buf.getFloat();
+            int enabled = fields.getEnabled();
+            fields.setPressure(pressure);
+            fields.setWind(wx, wy, wz);
+            fields.setEnabled(enabled);
+            F = buf.getInt();
+            L = buf.getInt();
+        }
+
+        long size = 8L * E + 4L * (3 * M + 3 * M + M + E + E) + M + 12L * M + 4L * F + 16L * L;
+        if (M < 0 || E < 0 || F < 0 || L < 0 || buf.remaining() != size) {
+            throw new IllegalArgumentException(file + " is truncated");
+        }
+
+        Topology topology = new Topology(M, E);
+        for (int e = 0; e < E; e++) {
+            topology.addEdge(buf.getInt(), buf.getInt());
+        }
+
+        float[] pos = getFloats(buf, 3 * M);
+        float[] vel = getFloats(buf, 3 * M);
+        float[] masses = getFloats(buf, M);
+        float[] ks = getFloats(buf, E);
+        float[] rest = getFloats(buf, E);
+        byte[] mask = new byte[M];
+        buf.get(mask);
+        float[] targets = getFloats(buf, 3 * M);
+
+        if (F > 0) {
+            int[] surface = new int[F];
+            buf.asIntBuffer().get(surface);
+            buf.position(buf.position() + 4 * F);
+            fields.setSurface(surface);
+        }
+        int[] nodes = new int[L];
+        buf.asIntBuffer().get(nodes);
+        buf.position(buf.position() + 4 * L);
+        float[] loads = getFloats(buf, 3 * L);
+        int enabled = fields.getEnabled();
+        for (int k = 0; k < L; k++) {
+            fields.setPointLoad(nodes[k], loads[k*3], loads[k*3 + 1], loads[k*3 + 2]);
+        }
+        fields.setEnabled(enabled);
+
+        MassSpringSystem mss = new MassSpringSystem(topology, (flags & PRIMITIVE) != 0);
+        mss.initialize(pos, masses, new int[0]);
+        mss.setupSprings(0f, -0.0004f);
+        mss.setSpringParameters(ks, rest);
+        mss.setForceFields(fields);
+        mss.setState(pos, vel);
+
+        Constraints con = mss.getConstraints();
+        for (int i = 0; i < M; i++) {
+            if (mask[i] != Constraints.FREE) {
+                con.constrain(i, mask[i], targets[i*3], targets[i*3 + 1], targets[i*3 + 2]);
+            }
+        }
+        return new Checkpoint(mss, time, steps);
+    }
+
+    private static float[] getFloats(ByteBuffer buf, int n) {
+        float[] a = new float[n];
+        buf.asFloatBuffer().get(a);
+        buf.position(buf.position() + 4 * n);
+        return a;
+    }
+
+    // Getters
+
+    public MassSpringSystem getSystem() {  return system_;  }
+    public double getTime()             {  return time_;  }
+    public long getSteps()              {  return steps_;  }
+
+    public static void main(String[] args) { }
+
+}
@@ -0,0 +1,134 @@
+/*************************************************************************
+ *  Dependencies: toxiclibscore.jar
+ *
+ *  Kinematic constraints for a particle-spring system. Each particle has
+ *  a byte mask of constrained axes (pins fix all three, rollers only 
+ *  some) and a prescribed target position for those axes. Prescribed 
+ *  displacements move the target; the integrator then carries the 
+ *  particle along on its next step.
+ *  
+ *  Constraints are looked up by index in O(1) so integrators can apply
+ *  them in the same loop that advances the state.
+ *************************************************************************/
+
+import java.util.Arrays;
+
+import toxi.geom.Vec3D;
+
+public class Constraints {
+    
+    public static final byte FREE  = 0;
+    public static final byte FIX_X = 1;
+    public static final byte FIX_Y = 2;
+    public static final byte FIX_Z = 4;
+    public static final byte FIX_ALL = FIX_X | FIX_Y | FIX_Z;
+    
+    private int M_;
+    private byte[] mask_;      // constrained axes per particle (size M)
+    private float[] target_;   // prescribed positions, x y z interleaved (size 3 * M)
+    private int count_;        // number of constrained particles
+    private long modCount_;    // number of edits, see MassSpringSystem.getModCount()
+    
+    public Constraints(int M) {
+        M_ = M;
+        mask_ = new byte[M];
+        target_ = new float[3 * M];
+        count_ = 0;
+    }
+    
+    // validate that i is a valid particle index
+    private void validate(int i) {
+        if (i < 0 || i >= M_) {
+            throw new IndexOutOfBoundsException("index " + i + " is not between 0 and " + M_);
+        }
+    }
+    
+    /**
+     *  Constrains the given axes of particle i to the target position.
+     *  Axes not in the mask keep their previous target value.
+     */
+    public void constrain(int i, int axes, float x, float y, float z) {
+        validate(i);
+        if (mask_[i] == FREE && axes != FREE) count_++;
+        if (mask_[i] != FREE && axes == FREE) count_--;
+        mask_[i] = (byte) (axes & FIX_ALL);
+        target_[i*3]     = x;
+        target_[i*3 + 1] = y;
+        target_[i*3 + 2] = z;
+        modCount_++;
+    }
+    
+    // pin all three axes
+    public void pin(int i, float x, float y, float z) {  constrain(i, FIX_ALL, x, y, z);  }
+    
+    // roller support, free to slide in x and y
+    public void roller(int i, float x, float y, float z) {  constrain(i, FIX_Z, x, y, z);  }
+    
+    public void release(int i) {  constrain(i, FREE, 0f, 0f, 0f);  }
+    
+    public void clear() {
+        Arrays.fill(mask_, FREE);
+        Arrays.fill(target_, 0f);
+        count_ = 0;
+        modCount_++;
+    }
+    
+    /**
+     *  Prescribed displacement: moves the target of particle i by (dx, dy, dz).
+     *  Only the constrained axes are affected by the integrator.
+     */
+    public void displace(int i, float dx, float dy, float dz) {
+        validate(i);
+        target_[i*3]     += dx;
+        target_[i*3 + 1] += dy;
+        target_[i*3 + 2] += dz;
+    }
+    
+    /**
+     *  Enforces the constraint of particle i on flat position and velocity
+     *  arrays: constrained coordinates are snapped to the target and their
+     *  velocity is zeroed.
+     */
+    public void apply(int i, float[] pos, float[] vel) {
+        int m = mask_[i];
+        int a = i * 3;
+        if ((m & FIX_X) != 0) {  pos[a]     = target_[a];      vel[a]     = 0f;  }
+        if ((m & FIX_Y) != 0) {  pos[a + 1] = target_[a + 1];  vel[a + 1] = 0f;  }
+        if ((m & FIX_Z) != 0) {  pos[a + 2] = target_[a + 2];  vel[a + 2] = 0f;  }
+    }
+    
+    // Vec3D counterpart of apply() for the interleaved state
+    public void apply(int i, Vec3D pos, Vec3D vel) {
+        int m = mask_[i];
+        int a = i * 3;
+        if ((m & FIX_X) != 0) {  pos.x = target_[a];      vel.x = 0f;  }
+        if ((m & FIX_Y) != 0) {  pos.y = target_[a + 1];  vel.y = 0f;  }
+        if ((m & FIX_Z) != 0) {  pos.z = target_[a + 2];  vel.z = 0f;  }
+    }
+    
+    /**
+     *  Zeroes the derivative of the constrained coordinates of particle i,
+     *  so trial states of multi-stage integrators keep supports in place.
+     */
+    public void filter(int i, float[] dpos, float[] dvel) {
+        int m = mask_[i];
+        int a = i * 3;
+        if ((m & FIX_X) != 0) {  dpos[a]     = 0f;  dvel[a]     = 0f;  }
+        if ((m & FIX_Y) != 0) {  dpos[a + 1] = 0f;  dvel[a + 1] = 0f;  }
+        if ((m & FIX_Z) != 0) {  dpos[a + 2] = 0f;  dvel[a + 2] = 0f;  }
+    }
+    
+    // Getters
+    
+    public boolean isConstrained(int i) {  return mask_[i] != FREE;  }
+    public long getModCount()           {  return modCount_;  }
+    public boolean isPinned(int i)      {  return mask_[i] == FIX_ALL;  }
+    public int mask(int i)              {  return mask_[i];  }
+    
+    public byte[] getMask()     {  return mask_;  }
+    public float[] getTargets() {  return target_;  }
+    public int size()           {  return count_;  }
+    
+    public static void main(String[] args) { }
+    
+}
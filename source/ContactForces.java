@@ -0,0 +1,247 @@
+/*************************************************************************
+ *  Dependencies: toxiclibscore.jar MassSpringSystem.java Topology.java
+ *
+ *  Optional contact stage of the force pass. Every particle is a sphere
+ *  of the given radius; two particles closer than twice the radius that
+ *  are not joined by a spring push each other apart with a penalty
+ *  spring along the line between them, damped on their approach speed,
+ *  so a deflecting surface no longer passes through itself.
+ *
+ *  Candidate pairs come from a uniform grid with cells as wide as the
+ *  contact distance, stored as a hash table: particles are counting
+ *  sorted by the bucket of their cell, so the table is two int arrays
+ *  and a particle only meets the particles of its own and the 26 cells
+ *  around it. The sort is redone only in steps in which some particle
+ *  changed cell, which keeps the cost linear in the number of particles
+ *  and close to one pass over them once the form settles.
+ *
+ *  Contact forces are internal, they sum to zero and change neither the
+ *  support reactions nor Sigma FL. Stiff contacts lower the stable step
+ *  of the explicit integrators.
+ *************************************************************************/
+
+import java.util.Arrays;
+
+import toxi.geom.Vec3D;
+
+public class ContactForces {
+
+    // cell offsets: the own cell, then 13 cells no other offset mirrors
+    private static final int[] HALF = {
+        0, 0, 0,    1, 0, 0,
+       -1, 1, 0,    0, 1, 0,    1, 1, 0,
+       -1,-1, 1,    0,-1, 1,    1,-1, 1,
+       -1, 0, 1,    0, 0, 1,    1, 0, 1,
+       -1, 1, 1,    0, 1, 1,    1, 1, 1
+    };
+
+    private float radius_;           // particle radius
+    private float stiffness_;        // penalty force per unit of overlap
+    private float damping_;          // force per unit of approach speed
+
+    private final int M_;
+    private final float[] invMass_;
+    private final int[] adjStart_, adjVertex_;  // spring neighbours, not in contact
+
+    // hashed grid, particles sorted by bucket
+    private int mask_;               // number of buckets - 1
+    private final int[] cell_;       // cell x y z of each particle (size 3 * M)
+    private final int[] bucket_;     // bucket of each particle
+    private int[] start_;            // first sorted slot of each bucket (size buckets + 1)
+    private final int[] sorted_;     // particles in bucket order
+    private boolean valid_;          // sorted_ matches bucket_
+
+    private long rebuilds_;          // number of sorts
+    private long modCount_;          // number of edits, see MassSpringSystem.getModCount()
+    private int contacts_;           // pairs in contact at the last evaluation
+
+    // gather buffers for systems in Vec3D mode
+    private float[] pos_, vel_, frc_;
+
+    /**
+     *  Contact between the particles of mss, each a sphere of the given
+     *  radius. The stiffness defaults to a quarter of the stiffest spring.
+     */
+    public ContactForces(MassSpringSystem mss, float radius) {
+        M_ = mss.getNumMasses();
+
+        invMass_ = new float[M_];
+        float[] masses = mss.getMasses();
+        for (int i = 0; i < M_; i++) invMass_[i] = 1f / masses[i];
+
+        Topology t = mss.getTopology();
+        adjStart_ = t.getAdjacencyStart();
+        adjVertex_ = t.getAdjacentVertices();
+
+        int buckets = Integer.highestOneBit(Math.max(1, 2 * M_ - 1)) << 1;
+        mask_ = buckets - 1;
+        cell_ = new int[3 * M_];
+        bucket_ = new int[M_];
+        start_ = new int[buckets + 1];
+        sorted_ = new int[M_];
+
+        // a quarter of the stiffest spring keeps particles with several
+        // contacts inside the stable step of the springs alone
+        float[] ks = new float[mss.getNumSprings()];
+        float[] rest = new float[mss.getNumSprings()];
+        mss.copySpringParameters(ks, rest);
+        float k = 0f;
+        for (int e = 0; e < ks.length; e++) {
+            int a = t.from(e), b = t.to(e);
+            k = Math.max(k, ks[e] / (invMass_[a] + invMass_[b]));
+        }
+        radius_ = radius;
+        stiffness_ = 0.25f * k;
+        damping_ = 0.02f;
+    }
+
+    /**
+     *  Adds the contact forces, as accelerations, of the particles at pos
+     *  moving with vel into frc (x y z triples, size 3 * M)
+     */
+    public void accumulate(float[] pos, float[] vel, float[] frc) {
+
+        hash(pos);
+
+        final float d0 = 2f * radius_;
+        final float d02 = d0 * d0;
+        final int[] cell = cell_;
+        int contacts = 0;
+
+        // particles in bucket order, so neighbouring lookups stay in cache
+        for (int s = 0; s < M_; s++) {
+            int i = sorted_[s];
+            int a = i * 3;
+            int cx = cell[a], cy = cell[a + 1], cz = cell[a + 2];
+
+            // own cell and the 13 cells of one half of the neighbourhood,
+            // the other half meets this particle from their own side
+            for (int o = 0; o < 14; o++) {
+                int x = cx + HALF[o*3], y = cy + HALF[o*3 + 1], z = cz + HALF[o*3 + 2];
+                int b = hash(x, y, z);
+
+                for (int k = start_[b], n = start_[b + 1]; k < n; k++) {
+                    int j = sorted_[k];
+                    int c = j * 3;
+                    // other cells that share the bucket are skipped
+                    if (cell[c] != x || cell[c + 1] != y || cell[c + 2] != z || (o == 0 && j <= i)) continue;
+
+                    float ex = pos[c]     - pos[a];
+                    float ey = pos[c + 1] - pos[a + 1];
+                    float ez = pos[c + 2] - pos[a + 2];
+                    float d2 = ex*ex + ey*ey + ez*ez;
+                    if (d2 >= d02 || linked(i, j)) continue;
+
+                    float d = (float) Math.sqrt(d2) + 1e-6f;
+                    ex /= d;  ey /= d;  ez /= d;
+
+                    // approach speed along the normal, negative when closing in
+                    float vn = (vel[c] - vel[a]) * ex + (vel[c + 1] - vel[a + 1]) * ey
+                             + (vel[c + 2] - vel[a + 2]) * ez;
+                    float f = Math.max(0f, stiffness_ * (d0 - d) - damping_ * vn);
+
+                    float fa = f * invMass_[i], fb = f * invMass_[j];
+                    frc[a]     -= ex * fa;
+                    frc[a + 1] -= ey * fa;
+                    frc[a + 2] -= ez * fa;
+                    frc[c]     += ex * fb;
+                    frc[c + 1] += ey * fb;
+                    frc[c + 2] += ez * fb;
+                    contacts++;
+                }
+            }
+        }
+
+        contacts_ = contacts;
+
+    }
+
+    /**
+     *  Vec3D mode counterpart: gathers the interleaved state into flat
+     *  buffers, accumulates and adds the result to forces (size M)
+     */
+    public void accumulate(Vec3D[] state, Vec3D[] forces) {
+        if (pos_ == null) {
+            pos_ = new float[3 * M_];
+            vel_ = new float[3 * M_];
+            frc_ = new float[3 * M_];
+        }
+        for (int i = 0; i < M_; i++) {
+            Vec3D p = state[i*2], v = state[i*2 + 1];
+            pos_[i*3] = p.x;  pos_[i*3 + 1] = p.y;  pos_[i*3 + 2] = p.z;
+            vel_[i*3] = v.x;  vel_[i*3 + 1] = v.y;  vel_[i*3 + 2] = v.z;
+        }
+        Arrays.fill(frc_, 0f);
+
+        accumulate(pos_, vel_, frc_);
+
+        if (contacts_ == 0) return;
+        for (int i = 0; i < M_; i++) {
+            forces[i].addSelf(frc_[i*3], frc_[i*3 + 1], frc_[i*3 + 2]);
+        }
+    }
+
+    // bin the particles, sorting again only if one of them changed cell
+    private void hash(float[] pos) {
+
+        float inv = 1f / (2f * radius_);
+        boolean moved = !valid_;
+
+        for (int i = 0; i < M_; i++) {
+            int a = i * 3;
+            int x = (int) Math.floor(pos[a] * inv);
+            int y = (int) Math.floor(pos[a + 1] * inv);
+            int z = (int) Math.floor(pos[a + 2] * inv);
+            if (x != cell_[a] || y != cell_[a + 1] || z != cell_[a + 2]) {
+                cell_[a] = x;  cell_[a + 1] = y;  cell_[a + 2] = z;
+                bucket_[i] = hash(x, y, z);
+                moved = true;
+            }
+        }
+        if (!valid_) {
+            for (int i = 0; i < M_; i++) bucket_[i] = hash(cell_[i*3], cell_[i*3 + 1], cell_[i*3 + 2]);
+        }
+        if (!moved) return;
+
+        // counting sort by bucket: count, running totals give the end of
+        // every bucket, filling backwards leaves start_ at their beginnings
+        Arrays.fill(start_, 0);
+        for (int i = 0; i < M_; i++) start_[bucket_[i]]++;
+        for (int b = 1; b <= mask_; b++) start_[b] += start_[b - 1];
+        start_[mask_ + 1] = M_;
+        for (int i = M_ - 1; i >= 0; i--) sorted_[--start_[bucket_[i]]] = i;
+
+        valid_ = true;
+        rebuilds_++;
+    }
+
+    private int hash(int x, int y, int z) {
+        return (x * 73856093 ^ y * 19349663 ^ z * 83492791) & mask_;
+    }
+
+    // true if a spring joins i and j
+    private boolean linked(int i, int j) {
+        for (int k = adjStart_[i], n = adjStart_[i + 1]; k < n; k++) {
+            if (adjVertex_[k] == j) return true;
+        }
+        return false;
+    }
+
+    // Setters
+
+    public void setRadius(float radius)       {  radius_ = radius;  valid_ = false;  modCount_++;  }
+    public void setStiffness(float stiffness) {  stiffness_ = stiffness;  modCount_++;  }
+    public void setDamping(float damping)     {  damping_ = damping;  modCount_++;  }
+
+    // Getters
+
+    public float getRadius()     {  return radius_;  }
+    public float getStiffness()  {  return stiffness_;  }
+    public float getDamping()    {  return damping_;  }
+    public int getContacts()     {  return contacts_;  }
+    public long getRebuilds()    {  return rebuilds_;  }
+    public long getModCount()    {  return modCount_;  }
+
+    public static void main(String[] args) { }
+
+}
@@ -0,0 +1,187 @@
+/*************************************************************************
+ *  Dependencies: MassSpringSystem.java  Constraints.java  Integrator.java
+ *
+ *  Adaptive Runge-Kutta integrator using the Dormand-Prince 5(4) pair. 
+ *  Every step is taken with the fifth order solution; the embedded 
+ *  fourth order solution gives a local error estimate which is compared
+ *  against absolute and relative tolerances to accept or reject the step
+ *  and to pick the next step size. The last stage is the first stage of 
+ *  the next step (FSAL), so an accepted step costs six force evaluations;
+ *  it is evaluated afresh when the system was edited in between (see
+ *  MassSpringSystem.getModCount()).
+ *  
+ *  The step size grows while the structure settles towards equilibrium
+ *  and shrinks only where stiff springs make the error large.
+ *************************************************************************/
+
+public class DormandPrince45 implements Integrator {
+    
+    // Butcher tableau
+    private static final float[][] A = {
+        { },
+        { 1f/5 },
+        { 3f/40, 9f/40 },
+        { 44f/45, -56f/15, 32f/9 },
+        { 19372f/6561, -25360f/2187, 64448f/6561, -212f/729 },
+        { 9017f/3168, -355f/33, 46732f/5247, 49f/176, -5103f/18656 },
+        { 35f/384, 0f, 500f/1113, 125f/192, -2187f/6784, 11f/84 }
+    };
+    
+    // difference between the fifth and fourth order weights
+    private static final float[] E = {
+        71f/57600, 0f, -71f/16695, 71f/1920, -17253f/339200, 22f/525, -1f/40
+    };
+    
+    private float absTol_, relTol_;
+    private float hMin_, hMax_;
+    private float h_;                  // step size for the next attempt
+    
+    private long accepted_, rejected_;
+    
+    private float[][] kx_ = new float[7][];   // stage derivatives of positions
+    private float[][] kv_ = new float[7][];   // stage derivatives of velocities
+    private float[] tx_, tv_;                 // trial state
+    
+    private MassSpringSystem owner_;   // system whose last stage is cached
+    private long modCount_;            // its edit count when the stage was computed
+    
+    public DormandPrince45() {
+        this(1e-3f, 1e-3f);
+    }
+    
+    public DormandPrince45(float absTol, float relTol) {
+        absTol_ = absTol;
+        relTol_ = relTol;
+        hMin_ = 1e-6f;
+        hMax_ = 100f;
+        h_ = 0f;
+    }
+    
+    private void ensureCapacity(int n) {
+        for (int s = 0; s < 7; s++) {
+            kx_[s] = Integrator.ensure(kx_[s], n);
+            kv_[s] = Integrator.ensure(kv_[s], n);
+        }
+        tx_ = Integrator.ensure(tx_, n);
+        tv_ = Integrator.ensure(tv_, n);
+    }
+    
+    // derivative of the trial state into stage s, constrained coordinates held
+    private void stage(MassSpringSystem mss, float[] x, float[] v, int s) {
+        mss.evalF(x, v, kx_[s], kv_[s]);
+        Constraints con = mss.getConstraints();
+        byte[] mask = con.getMask();
+        for (int i = 0, m = mss.getNumMasses(); i < m; i++) {
+            if (mask[i] != 0) con.filter(i, kx_[s], kv_[s]);
+        }
+    }
+    
+    /**
+     *  Takes one accepted step. The argument h only seeds the step size on
+     *  the first call; afterwards the integrator chooses its own step 
+     *  within [hMin, hMax], retrying rejected attempts with a smaller one.
+     *
+     *  @return the size of the accepted step
+     *  @throws java.lang.IllegalStateException if the error estimate is
+     *          still NaN or infinite at the minimum step, e.g. because the
+     *          state holds a NaN
+     */
+    public float step(MassSpringSystem mss, final float h) {
+        float[] pos = mss.getPositions();
+        float[] vel = mss.getVelocities();
+        
+        int n = 3 * mss.getNumMasses();
+        ensureCapacity(n);
+        
+        if (h_ <= 0f) h_ = Math.min(Math.max(h, hMin_), hMax_);
+        
+        // first stage, reused from the last stage of the previous step
+        if (owner_ != mss || modCount_ != mss.getModCount()) {
+            stage(mss, pos, vel, 0);
+            owner_ = mss;
+        }
+        
+        while (true) {
+            float hs = h_;
+            
+            for (int s = 1; s < 7; s++) {
+                float[] a = A[s];
+                for (int i = 0; i < n; i++) {
+                    float dx = 0f, dv = 0f;
+                    for (int j = 0; j < s; j++) {
+                        dx += a[j] * kx_[j][i];
+                        dv += a[j] * kv_[j][i];
+                    }
+                    tx_[i] = pos[i] + hs * dx;
+                    tv_[i] = vel[i] + hs * dv;
+                }
+                stage(mss, tx_, tv_, s);
+            }
+            
+            // tx_, tv_ now hold the fifth order solution (stage 7 = b weights)
+            float sum = 0f;
+            for (int i = 0; i < n; i++) {
+                float ex = 0f, ev = 0f;
+                for (int s = 0; s < 7; s++) {
+                    ex += E[s] * kx_[s][i];
+                    ev += E[s] * kv_[s][i];
+                }
+                float scx = absTol_ + relTol_ * Math.max(Math.abs(pos[i]), Math.abs(tx_[i]));
+                float scv = absTol_ + relTol_ * Math.max(Math.abs(vel[i]), Math.abs(tv_[i]));
+                ex *= hs / scx;
+                ev *= hs / scv;
+                sum += ex * ex + ev * ev;
+            }
+            float err = (float) Math.sqrt(sum / (2 * n));
+            
+            // a non-finite estimate is rejected with the largest cut, down to hMin
+            boolean finite = !Float.isNaN(err) && !Float.isInfinite(err);
+            if (!finite && hs <= hMin_) {
+                throw new IllegalStateException("non-finite error estimate at the minimum step " + hs);
+            }
+            
+            // standard controller with safety factor 0.9, order 5
+            float fac = !finite ? 0.2f : (err > 0f) ? 0.9f * (float) Math.pow(err, -0.2) : 5f;
+            
+            if (finite && (err <= 1f || hs <= hMin_)) {
+                System.arraycopy(tx_, 0, pos, 0, n);
+                System.arraycopy(tv_, 0, vel, 0, n);
+                
+                // FSAL: last stage is the derivative at the new state
+                float[] t = kx_[0];  kx_[0] = kx_[6];  kx_[6] = t;
+                t = kv_[0];  kv_[0] = kv_[6];  kv_[6] = t;
+                
+                accepted_++;
+                modCount_ = mss.getModCount();
+                h_ = Math.min(hMax_, hs * Math.min(5f, Math.max(0.2f, fac)));
+                return hs;
+            }
+            
+            rejected_++;
+            h_ = Math.min(hMax_, Math.max(hMin_, hs * Math.max(0.2f, fac)));
+        }
+    }
+    
+    // drop the cached first stage, e.g. after writing into getPositions() directly
+    public void reset() {  owner_ = null;  }
+    
+    // Setters
+    
+    public void setTolerances(float absTol, float relTol) {
+        absTol_ = absTol;
+        relTol_ = relTol;
+    }
+    public void setStepBounds(float hMin, float hMax) {
+        hMin_ = hMin;
+        hMax_ = hMax;
+    }
+    
+    // Getters
+    
+    public float getStepSize()   {  return h_;  }
+    public long getAccepted()    {  return accepted_;  }
+    public long getRejected()    {  return rejected_;  }
+    
+    public static void main(String[] args) { }
+    
+}
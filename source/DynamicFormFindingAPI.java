@@ -15,7 +15,7 @@
  *  @author Alexandros Charidis, MIT
  ****************************************************************************/
 
-import java.io.FileOutputStream;
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
 
@@ -23,9 +23,7 @@ import processing.core.PApplet;
 import processing.core.PFont;
 import processing.data.IntList;
 import toxi.processing.*;
-import toxi.geom.Sphere;
 import toxi.geom.Vec3D;
-import toxi.geom.mesh.TriangleMesh;
 import controlP5.*;
 import peasy.*;
 
@@ -65,14 +63,27 @@ public class DynamicFormFindingAPI extends PApplet {
 	Topology topology;
 	MassSpringSystem mss;
 	OdeSolver ode;
-
-	TriangleMesh mesh;
+	SimulationThread sim;
+	Instrumentation stats;   // phase timers, visible over JMX
+	SnapshotBuffer.Snapshot snapshot;
+	MeshRenderer renderer;   // retained shapes, rebuilt after every reset
+	int[] faces;             // triangle indices of the surface, per topology
+	float[] plot = new float[240]; // latest samples of one convergence metric
 
 	Vec3D[] geometry;
 	boolean initSimulation = false;
 	boolean drawSigmaFL = false;
 	int topolType = 0;
 	
+	// written every 100000 steps and on 'c', resumed on 'r'
+	static final String CHECKPOINT = "massSpringModel.ckpt";
+	
+	// recorded on 't', replayed on 'v' and exported frame by frame on 'x'
+	static final String TRAJECTORY = "massSpringModel.traj";
+	TrajectoryReader replay;       // open while replaying, else null
+	int replayFrame;
+	float[] replayPositions;
+	
 	public void setup() {
 		
 		size(W, H, OPENGL); 
@@ -87,11 +98,18 @@ public class DynamicFormFindingAPI extends PApplet {
 	    //cam.setMinimumDistance(1);
 	    cam.setMaximumDistance(1000);
 	    
-	     // initialize ode
-	    ode = new OdeSolver();
+	     // initialize ode, velocity Verlet on the flat arrays of the system
+	    ode = new OdeSolver(new VelocityVerlet());
+	    
+	    // physics runs on its own thread, draw() only reads its snapshots
+	    sim = new SimulationThread(ode, 1f);
+	    sim.setAutosave(sketchPath(CHECKPOINT), 100000);
+	    stats = new Instrumentation().register("gui");
+	    sim.setInstrumentation(stats);
 	    
 	    // 
 	    resetMassSpringSystem();
+	    sim.start();
 	    
 	    // GUI controls 
 	    
@@ -212,6 +230,8 @@ public class DynamicFormFindingAPI extends PApplet {
 
 	public void draw() {
 		
+		long t0 = stats.begin();
+		
 		if (cp5.isMouseOver()) {
 	        cam.setActive(false);
 	    } else {
@@ -223,15 +243,17 @@ public class DynamicFormFindingAPI extends PApplet {
 	    // draw origini axis
 	    gfx.origin(WIDTH);
 	    Misc.drawSceneGrid(this, numW, numH, lngth);
-	    drawMeshGrid();
 	    
-	    if (initSimulation) {
-	        initMassSpringSystemSimulation();
-	    }
+	    // latest state published by the simulation thread
+	    snapshot = sim.latest();
+	    if (replay != null) drawReplay();
+	    else if (snapshot.source == mss) drawMeshGrid(snapshot.positions);
 	    
 	    // graphic user interface setup
 	    
 	    gui();
+	    
+	    stats.end(Instrumentation.FRAME, t0);
 		
 	}
 	
@@ -244,59 +266,53 @@ public class DynamicFormFindingAPI extends PApplet {
 	    cam.beginHUD();
 	    cp5.draw();
 	    Misc.displayMark(this, signatureFont, 30, 30);
-	    if (drawSigmaFL) Misc.displaySigmaFl(this, drawSigmaFL, mss.getSumFL(), H);
+	    if (drawSigmaFL) {
+	        Misc.displaySigmaFl(this, drawSigmaFL, snapshot.sumFL, H);
+	        drawConvergence();
+	    }
 	    Misc.drawGUIText(this, H);
 	    cam.endHUD();
 	    hint(ENABLE_DEPTH_TEST);
 	    
 	}
 	
-	public void stepSystem() {
-		  
-	    Vec3D[] st = ode.takeStep(mss, 0.0001f);
-	    
-	    for (int i = 0; i < fixedN.size(); i++) {
-	        int id = fixedN.get(i);
-	        st[id*2] = geometry[id];
-	    }
-	    
-	    mss.setState(st);
-	    
-	}
-	
-	public void massSpringSystemCallback(int stepsPerFrame) {
-		  
-	    for (int i = 0; i < stepsPerFrame; i++) {
-	        stepSystem();
-	    }
-	    
-	}
-
-	public void initMassSpringSystemSimulation() {
-	    massSpringSystemCallback(10); // 5 iterations a frame
+	// Sigma FL and residual history of the simulation thread
+	public void drawConvergence() {
+	    MetricsHistory history = sim.getHistory();
+	    int n = history.copy(MetricsHistory.SUM_FL, plot);
+	    Misc.plotSeries(this, plot, n, false, "Sigma FL", W - 300, H - 260, 260, 40);
+	    n = history.copy(MetricsHistory.RESIDUAL, plot);
+	    Misc.plotSeries(this, plot, n, true, "Residual", W - 300, H - 200, 260, 40);
 	}
 	
 	public void controlEvent(ControlEvent theEvent) {
 		  
 	    if (theEvent.isFrom(cp5.getController("btn_Sim"))) {
 	        initSimulation = !initSimulation;
+	        sim.setRunning(initSimulation);
 	        drawSigmaFL = true;
 	    }
 	  
 	    if (theEvent.isFrom(cp5.getController("btn_Rst"))) {
-	        resetMassSpringSystem();
 	        initSimulation = false;
+	        sim.setRunning(false);
+	        resetMassSpringSystem();
 	    }
 	    
 	    if (theEvent.isFrom(cp5.getController("btn_ExpMesh"))) {
-	        try {
-	            String fileID="massSpringModel-"+(System.currentTimeMillis()/1000);
-	            FileOutputStream fs;
-	            fs = new FileOutputStream(sketchPath(fileID+".obj"));
-	            
-	            mesh.saveAsOBJ(fs);
-	        } catch(Exception e) {
-	            e.printStackTrace();
+	        // right after a reset the snapshot may still be of the old system,
+	        // whose particles do not match the faces of the new one
+	        if (snapshot == null || snapshot.source != mss) {
+	            println("nothing to export yet, the new system has not been published");
+	        } else {
+	            try {
+	                String fileID="massSpringModel-"+(System.currentTimeMillis()/1000);
+	                
+	                // streamed as binary STL from the snapshot on screen, not from the drawn shapes
+	                new MeshExporter(snapshot.positions, faces).write(sketchPath(fileID+".stl"));
+	            } catch(Exception e) {
+	                e.printStackTrace();
+	            }
 	        }
 	    }
 	    
@@ -305,16 +321,21 @@ public class DynamicFormFindingAPI extends PApplet {
 	        resetMassSpringSystem();
 	    }
 	    
+	    // parameter changes are applied by the simulation thread between steps
+	    
+	    final MassSpringSystem target = mss;
+	    final float value = theEvent.getController().getValue();
+	    
 	    if (theEvent.isFrom(cp5.getController("sl_kSpring"))) {
-	        mss.setkSpring(theEvent.getController().getValue());
+	        sim.post(() -> target.setkSpring(value));
 	    }
 	  
 	    if (theEvent.isFrom(cp5.getController("sl_gravity"))) {
-	        mss.setGravity(theEvent.getController().getValue());
+	        sim.post(() -> target.setGravity(value));
 	    }
 	    
 	    if (theEvent.isFrom(cp5.getController("sl_RestLngth"))) {
-	        mss.setRestLenght(theEvent.getController().getValue());
+	        sim.post(() -> target.setRestLenght(value));
 	    }
 	    
 	    if (theEvent.isFrom(cp5.getController("sl_numParticles"))) {
@@ -346,12 +367,12 @@ public class DynamicFormFindingAPI extends PApplet {
 	        
 	        // update the MSS 
 	        
-	        // anchor the particle on ground
-	        Vec3D token = mss.getStatePositionAt(index);
-	        mss.setStatePositionAt(index, new Vec3D(token.x(), token.y(), 0));
-	        
-	        // update fixed array
-	        mss.setFixed(fixedN.array());
+	        // anchor the particle on ground and pin it there
+	        sim.post(() -> {
+	            Vec3D token = target.getStatePositionAt(index);
+	            target.setStatePositionAt(index, new Vec3D(token.x(), token.y(), 0));
+	            target.getConstraints().pin(index, token.x(), token.y(), 0);
+	        });
 	       
 	    }
 
@@ -361,12 +382,19 @@ public class DynamicFormFindingAPI extends PApplet {
 
 	public void resetMassSpringSystem() {
 	    
+	    // a replay belongs to the previous system
+	    if (replay != null) toggleReplay(null);
+	    
 	    topologyBuilder(topolType);
 	  
 	    // Construct geometry and fixed points
 	    
 	    geometryBuilder(topolType);
 	    
+	    // surface connectivity, reused by every frame until the next reset
+	    faces = new FormBuilder(topolType, numW, numH).buildFaces();
+	    renderer = null;
+	    
 	    // @Note in this application, the structural system
 	    //       has its four corners pinned by default.
 	    
@@ -383,305 +411,145 @@ public class DynamicFormFindingAPI extends PApplet {
 	    mss.initialize(geometry, fixedN.array());
 	    mss.setupSprings(0.07f, -0.0004f);
 	    
+	    // hand the new system over to the simulation thread
+	    sim.setSystem(mss);
+	    
 	}
 	
 	public void topologyBuilder(int type) {
         
-	    if (type == 0) { // regular grid mesh
-	        // Construct topology
-	        topology = new Topology(V);
-	    
-	        // horizontal
-	        for (int y = 0; y < numH; y++) {
-	            for (int x = 0; x < numW - 1; x++) {
-	                topology.addEdge(y * numH + x, y * numH + x + 1);
-	            }
-	        }
+	    FormBuilder builder = new FormBuilder(type, numW, numH);
+	    topology = builder.buildTopology();
 	    
-	        // vertical
-	        for (int x = 0; x < numW; x++) {
-	            for (int y = 0; y < numH - 1; y++) {
-	                topology.addEdge(y * numW + x, (y + 1) * numW + x);
-	            }
-	        }
-	        
-	    } else if (type == 1) { // only for odd number of joints
-	        
-	        if (V % 2 == 0) {
-	            numW--;
-	            numH = numW;
-	            V = numW * numH;
-	        }
-	        
-	        // Construct topology
-	        topology = new Topology(V);
-	        
-	        // diagonal
-	        for (int y = 0; y < numH - 1; y++) {
-	            for (int x = 0; x < numW - 1; x++) {
-	              
-	                // first row
-	                if ( (y == 0 && (x > 1 && x < numW/2)) ) {
-	                   topology.addEdge(y * numH + x, y * numH + x + numH - 1);
-	                }
-	                if ( (y == 0 && (x > numW/2 && x < numW-2)) ) {
-	                   topology.addEdge(y * numH + x, y * numH + x + 1 + numH );
-	                }
-	                // last row
-	                if ( (y == numH - 2 && (x > 0 && x < numW/2-1)) ) {
-	                   topology.addEdge(y * numH + x, y * numH + x + 1 + numH );
-	                }
-	                if ( (y == numH - 2 && (x > numW/2+1 && x < numW)) ) {
-	                   topology.addEdge(y * numH + x, y * numH + x - 1 + numH );
-	                }
-	                
-	                // first column
-	                if ( (x == 0 && (y < numH/2 && y > 1)) ) {
-	                   topology.addEdge(y * numH + x, y * numH + x + 1 - numH );
-	                }
-	                if ( (x == 0 && (y > numH/2 && y < numH - 2) ) ) {
-	                   topology.addEdge(y * numH + x, y * numH + x + 1 + numH );
-	                }
-	                // last column
-	                if ( (x == numW - 2 && (y < numH/2 - 1 && y > 0)) ) {
-	                   topology.addEdge(y * numH + x, y * numH + x + 1 + numH );
-	                }
-	                if ( (x == numW - 2 && (y > numH/2 + 1 && y < numH) ) ) {
-	                   topology.addEdge(y * numH + x, y * numH + x + 1 - numH );
-	                }
-	                
-	                // diagonal elements horizontal stride
-	                if ( (x >= numW/2 && x < numW-1) && (y == numH/2) ) {
-	                    topology.addEdge(y * numH + x, y * numH + x + 1 + numH);
-	                    topology.addEdge(y * numH + x, y * numH + x + 1 - numH); 
-	                }
-	                if ( (x <= numW/2 && x > 0) && (y == numH/2) ) {
-	                    topology.addEdge(y * numH + x, y * numH + x - 1 + numH);
-	                    topology.addEdge(y * numH + x, y * numH + x - 1 - numH);  
-	                }
-	                // diagonal elements vertical stride
-	                if ( (y >= numH/2 && y < numH-1) && (x == numW/2) ) {
-	                    topology.addEdge(y * numH + x, y * numH + x + 1 + numH);
-	                    topology.addEdge(y * numH + x, y * numH + x - 1 + numH); 
-	                }
-	                if ( (y <= numH/2 && y > 0) && (x == numW/2) ) {
-	                    topology.addEdge(y * numH + x, y * numH + x - 1 - numH);
-	                    topology.addEdge(y * numH + x, y * numH + x + 1 - numH);  
-	                }
-	                
-	            }
-	        }
-	        
-	        // horizontal
-	        for (int y = 0; y < numH; y++) {
-	            for (int x = 0; x < numW - 1; x++) {
-	                topology.addEdge(y * numH + x, y * numH + x + 1);
-	            }
-	        }
-	        
-	        // vertical
-	        for (int x = 0; x < numW; x++) {
-	            for (int y = 0; y < numH - 1; y++) {
-	                topology.addEdge(y * numW + x, (y + 1) * numW + x);
-	            }
-	        }
-	        
-	    } else if (type == 2) {
-	        
-	        // Construct topology
-	        topology = new Topology(V);
-	        
-	        // random diagonals
-	        for (int y = 0; y < numH - 1; y++) {
-	            for (int x = 0; x < numW - 1; x++) {
-	                int i = (int)random(0, 2);
-	                if ( i == 1) {
-	                    topology.addEdge(y * numH + x, y * numH + x + 1 + numH);
-	                } else {
-	                    topology.addEdge(y * numH + x + 1, y * numH + x + numH);
-	                }
-	            }
-	        }
-	      
-	        // horizontal
-	        for (int y = 0; y < numH; y++) {
-	            for (int x = 0; x < numW - 1; x++) {
-	                topology.addEdge(y * numH + x, y * numH + x + 1);
-	            }
-	        }
-	        
-	        // vertical
-	        for (int x = 0; x < numW; x++) {
-	            for (int y = 0; y < numH - 1; y++) {
-	                topology.addEdge(y * numW + x, (y + 1) * numW + x);
-	            }
-	        }
-	      
-	    } else if (type == 3) {
-	        
-	        int F = (numW - 1) * (numH - 1);
-	        int Vn = V + F;
-	        
-	        // Construct topology
-	        topology = new Topology(Vn);
-	      
-	        // horizontal
-	        for (int y = 0; y < 2; y++) {
-	            for (int x = 0; x < numW - 1; x++) {
-	                topology.addEdge(x + y*(numW*numH - numW), x + y*(numW*numH - numW) + 1);
-	            }
-	        }
-	        
-	        // vertical
-	        for (int x = 0; x < 2; x++) {
-	            for (int y = 0; y < numH - 1; y++) {
-	                topology.addEdge( x*(numW-1) + y*numW, x*(numW-1) + (y+1)*numW );
-	            }
-	        }
-	      
-	        // diagonal
-	        for (int y = 0; y < numH - 1; y++) {
-	            for (int x = 0; x < numW - 1; x++) {
-	                int id1 = y*(numH-1) + x;
-	                int id2 = y*numH + x;
-	                
-	                topology.addEdge(id2, id1 + numW*numH);
-	                topology.addEdge(id2 + 1, id1 + numW*numH);
-	                topology.addEdge(id2 + numH, id1 + numW*numH);
-	                topology.addEdge(id2 + numH + 1, id1 + numW*numH);
-	            }
-	        }
-	    }
+	    // type 1 may have reduced the number of joints
+	    numW = builder.numW();
+	    numH = builder.numH();
+	    V = numW * numH;
 	    
 	    // Construct Mass Spring System with topology
 	    
-	    mss = new MassSpringSystem(topology);
+	    mss = new MassSpringSystem(topology, true);
 	}
 
 	public void geometryBuilder(int type) {
-	    if (type == 0 || type == 1 || type == 2) {
-	        float stepW = (float) WIDTH / (numW - 1);
-	        float stepL = (float) LENGTH / (numH - 1);
-	        
-	        geometry = new Vec3D[V];
-	        for (int j = 0; j < numW; j++) {
-	            for (int i = 0; i < numH; i++) {
-	                geometry[j*numW + i] = new Vec3D(i * stepW, j * stepL, 0f);
-	            }
+	    FormBuilder builder = new FormBuilder(type, numW, numH);
+	    builder.setSize(WIDTH, LENGTH);
+	    geometry = builder.buildGeometry();
+	}
+
+	public void keyPressed() {
+	    if (key == 'p' || key == 'P')
+	        saveFrame("mss-######.png");
+	    
+	    // checkpoint the running system, or resume the last checkpoint
+	    if (key == 'c' || key == 'C')
+	        sim.checkpoint(sketchPath(CHECKPOINT));
+	    if (key == 'r' || key == 'R')
+	        restoreMassSpringSystem(sketchPath(CHECKPOINT));
+	    
+	    // record every 100th step of the running system, or stop recording
+	    if (key == 't' || key == 'T') {
+	        if (sim.isRecording()) sim.stopRecording();
+	        else sim.record(sketchPath(TRAJECTORY), 100, 0.001f);
+	    }
+	    // particle self-contact on or off, radius half the grid spacing
+	    if (key == 'o' || key == 'O') {
+	        final MassSpringSystem target = mss;
+	        final float radius = 0.5f * WIDTH / (numW - 1);
+	        sim.post(() -> target.setContactForces(
+	            (target.getContactForces() == null) ? new ContactForces(target, radius) : null));
+	    }
+	    if (key == 'v' || key == 'V')
+	        toggleReplay(sketchPath(TRAJECTORY));
+	    if ((key == 'x' || key == 'X') && replay != null) {
+	        try {
+	            replay.exportFrames(0, replay.getFrames() - 1, faces, 
+	                                sketchPath("massSpringModel-frame-%05d.stl"));
+	        } catch (Exception e) {
+	            e.printStackTrace();
 	        }
-	    } 
-	    else if (type == 3) {
-	      
-	        float stepW = (float) WIDTH / (numW - 1);
-	        float stepL = (float) LENGTH / (numH - 1);
-	        
-	        int F = (numW - 1) * (numH - 1);
-	        int Vn = V + F;
-	        
-	        geometry = new Vec3D[Vn];
-	        for (int j = 0; j < numW; j++) {
-	            for (int i = 0; i < numH; i++) {
-	                geometry[j*numW + i] = new Vec3D(i * stepW, j * stepL, 0f);
-	            }
+	    }
+	}
+	
+	/**
+	 *  Plays the recorded trajectory of the current grid in place of the
+	 *  simulation, which is paused, or returns to the simulation.
+	 */
+	public void toggleReplay(String file) {
+	    try {
+	        if (replay != null) {
+	            replay.close();
+	            replay = null;
+	            return;
 	        }
+	        if (!new File(file).exists()) return;
 	        
-	        // internal points
-	        for (int i = 0; i < numW - 1; i++) {
-	            for (int j = 0; j < numH - 1; j++) {
-	              
-	                int id = i * (numW) + j;
-	                
-	                Vec3D p0 = geometry[id];
-	                Vec3D p1 = geometry[id + 1];
-	                Vec3D p2 = geometry[id + numW];
-	                Vec3D p3 = geometry[id + 1 + numW];
-	                
-	                int id2 = i * (numW-1) + j;
-	                
-	                geometry[numW*numH + id2] = p0.add(p1).add(p2).add(p3).scale(1f/4);
-	                
-	            }
+	        TrajectoryReader reader = new TrajectoryReader(file);
+	        if (reader.getNumMasses() != mss.getNumMasses() || reader.getFrames() == 0) {
+	            println("trajectory " + file + " does not match the current topology");
+	            reader.close();
+	            return;
 	        }
 	        
+	        initSimulation = false;
+	        sim.setRunning(false);
+	        replay = reader;
+	        replayFrame = 0;
+	        replayPositions = new float[3 * reader.getNumMasses()];
+	    } catch (Exception e) {
+	        e.printStackTrace();
 	    }
 	}
-
-	public void keyPressed() {
-	    if (key == 'p' || key == 'P')
-	        saveFrame("mss-######.png");
+	
+	// one recorded frame per draw, looping
+	public void drawReplay() {
+	    try {
+	        replay.readFrame(replayFrame, replayPositions);
+	    } catch (Exception e) {
+	        e.printStackTrace();
+	        return;
+	    }
+	    drawMeshGrid(replayPositions);
+	    replayFrame = (replayFrame + 1) % replay.getFrames();
+	}
+	
+	/**
+	 *  Resumes a checkpoint of the current grid, e.g. after a crash or a
+	 *  reset. A checkpoint of another grid size or topology is ignored.
+	 */
+	public void restoreMassSpringSystem(String file) {
+	    if (!new File(file).exists()) return;
+	    
+	    Checkpoint cp = Checkpoint.read(file);
+	    MassSpringSystem restored = cp.getSystem();
+	    if (restored.getNumMasses() != mss.getNumMasses() 
+	            || restored.getNumSprings() != mss.getNumSprings()) {
+	        println("checkpoint " + file + " does not match the current topology");
+	        return;
+	    }
+	    
+	    mss = restored;
+	    sim.setSystem(mss, cp.getTime(), cp.getSteps());
 	}
 	
 	/**
 	 *  Draw the surface using the state returned from FDM
 	 */
-	public void drawMeshGrid() {
+	public void drawMeshGrid(float[] positions) {
 
-		fill(50, 255, 50);
-	      int num = mss.getNumMasses();
-	      for (int i = 0; i < num; i++) {
-	          //if (sysstate.size() > 0) {
-	          Sphere s = new Sphere(mss.getState()[i*2], 4);
-	          gfx.sphere(s, 3, true);
-	      }
-	     
-	     strokeWeight(1); 
-	     stroke(0);
-	     
-	     // By building a generic Topology graph, drawing the resultant polygon mesh
-	     // in wireframe becomes as simple as traversing the edges of the topology
-	     // and drawing each edge as one line
-	     
-	     for (Edge<Integer> e : topology.getEdges()) {
-	         int id0 = e.from;
-	         int id1 = e.to;
-	         
-	         Vec3D p0 = mss.getState()[id0 * 2];
-	         Vec3D p1 = mss.getState()[id1 * 2];
-	         
-	         line(p0.x(), p0.y(), p0.z(), p1.x(), p1.y(), p1.z());
-	     }
-	     
-	     // draw as mesh
-	     mesh = new TriangleMesh();
-	     
-	     for(int y = 0; y < numW - 1; y++) {
-	         for(int x = 0; x < numH - 1; x++) {
-	             
-	             if (topolType != 3) {
-	                 int i = y * numW + x;
-	          
-	                 Vec3D p0 = mss.getState()[i*2];
-	                 Vec3D p1 = mss.getState()[i*2 + 2];
-	                 Vec3D p2 = mss.getState()[i*2 + 2 + numW*2];
-	                 Vec3D p3 = mss.getState()[i*2 + numW*2];
-	              
-	                 // two triangles for each face
-	                 mesh.addFace(p0,p3,p2);
-	                 mesh.addFace(p0,p2,p1);
-	             } else {
-	                 int i = y * numW + x;
-	              
-	                 Vec3D p0 = mss.getState()[i*2];
-	                 Vec3D p1 = mss.getState()[i*2 + 2];
-	                 Vec3D p2 = mss.getState()[i*2 + 2 + numW*2];
-	                 Vec3D p3 = mss.getState()[i*2 + numW*2];
-	                 
-	                 int i2 = y * (numW-1) + x;
-	                 Vec3D p4 = mss.getState()[numW*numH*2 + i2*2];
-	                 
-	                 // four triangles for each face
-	                 mesh.addFace(p0,p4,p3);
-	                 mesh.addFace(p0,p4,p1);
-	                 mesh.addFace(p1,p4,p2);
-	                 mesh.addFace(p2,p4,p3);
-	             }
-	         }
-	     }
-	     
-	     fill(160, 50);
-	     noStroke();
-	     gfx.mesh(mesh, false);
+		// shapes need the GL context, so they are created on the draw thread
+		if (renderer == null) {
+		    renderer = new MeshRenderer(this, topology, faces, mss.getNumMasses());
+		}
+		
+		// By building a generic Topology graph, drawing the resultant polygon mesh
+		// in wireframe becomes as simple as traversing the edges of the topology.
+		// The edges, faces and particles are retained shapes, each frame only
+		// moves their vertices to the latest snapshot
+		
+		renderer.update(positions);
+		renderer.draw(this, drawAsMesh);
 		
 	}
-	
+
 }
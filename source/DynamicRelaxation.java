@@ -0,0 +1,191 @@
+/*************************************************************************
+ *  Dependencies: MassSpringSystem.java  Constraints.java  Integrator.java
+ *
+ *  Form finding by dynamic relaxation with kinetic damping. The system is
+ *  advanced with the (undamped) central difference scheme while the total
+ *  kinetic energy is tracked; when it drops, the structure has just 
+ *  passed an energy peak, which is close to the static position along 
+ *  the current mode, so all velocities are zeroed and the motion restarts
+ *  from rest. The run stops once the out-of-balance force norm falls 
+ *  below the tolerance, or as a failure once it is no longer finite.
+ *
+ *  See Barnes, M. R., Form Finding and Analysis of Tension Structures 
+ *  by Dynamic Relaxation, International Journal of Space Structures, 1999.
+ *
+ *  With a MetricsHistory set, run() samples the convergence metrics of 
+ *  the force pass as it goes.
+ *************************************************************************/
+
+public class DynamicRelaxation implements Integrator {
+    
+    private float tolerance_;      // residual force norm at convergence
+    
+    private float lastKE_;         // kinetic energy after the previous step
+    private boolean atRest_;       // velocities were just zeroed
+    private float residual_;       // residual of the last step
+    private long iterations_;      // steps since reset()
+    private long peaks_;           // number of kinetic energy peaks
+    private long wallNanos_;       // wall time spent in run()
+    private boolean converged_;
+    private boolean diverged_;     // the residual became NaN or infinite
+    private Instrumentation stats_;  // optional timers, or null
+    private MetricsHistory history_; // optional convergence history, or null
+    
+    public DynamicRelaxation() {
+        this(1e-3f);
+    }
+    
+    public DynamicRelaxation(float tolerance) {
+        tolerance_ = tolerance;
+        reset();
+    }
+    
+    // start a new relaxation
+    public void reset() {
+        lastKE_ = 0f;
+        atRest_ = true;
+        residual_ = Float.MAX_VALUE;
+        iterations_ = 0;
+        peaks_ = 0;
+        wallNanos_ = 0;
+        converged_ = false;
+        diverged_ = false;
+    }
+    
+    /**
+     *  Continues a relaxation of a system restored from a checkpoint, as
+     *  if it had not been interrupted after the given number of steps.
+     */
+    public void resume(MassSpringSystem mss, long iterations) {
+        reset();
+        iterations_ = iterations;
+        mss.computeForces(mss.getPositions(), mss.getVelocities());
+        lastKE_ = mss.getKineticEnergy();
+        atRest_ = lastKE_ == 0f;
+    }
+    
+    /**
+     *  One relaxation step of size h. Velocities are zeroed instead of 
+     *  moving the particles when the kinetic energy has passed a peak.
+     */
+    public float step(MassSpringSystem mss, final float h) {
+        float[] pos = mss.getPositions();
+        float[] vel = mss.getVelocities();
+        float[] frc = mss.getForces();
+        float[] invMass = mss.getInverseMasses();
+        
+        Constraints con = mss.getConstraints();
+        byte[] mask = con.getMask();
+        
+        int M = mss.getNumMasses();
+        float drag = mss.getForceFields().getDrag();
+        
+        mss.computeForces(pos, vel);
+        residual_ = mss.getResidualNorm();
+        
+        // v(t + h/2) = v(t - h/2) + h F, drag excluded. Starting from rest
+        // the first kick is h/2, otherwise the restarts turn the scheme into
+        // steepest descent with step h^2 and halve the stable step size.
+        float kick = atRest_ ? 0.5f * h : h;
+        atRest_ = false;
+        
+        double ke = 0;
+        for (int i = 0; i < M; i++) {
+            int a = i * 3;
+            for (int k = a; k < a + 3; k++) {
+                vel[k] += kick * (frc[k] - drag * vel[k]);
+            }
+            if (mask[i] != 0) con.apply(i, pos, vel);
+            ke += 0.5 * (vel[a]*vel[a] + vel[a + 1]*vel[a + 1] + vel[a + 2]*vel[a + 2]) / invMass[i];
+        }
+        
+        if (ke < lastKE_) {
+            // energy peak passed, restart from rest
+            java.util.Arrays.fill(vel, 0, 3 * M, 0f);
+            lastKE_ = 0f;
+            atRest_ = true;
+            peaks_++;
+        } else {
+            for (int i = 0; i < 3 * M; i++) {
+                pos[i] += h * vel[i];
+            }
+            lastKE_ = (float) ke;
+        }
+        
+        iterations_++;
+        converged_ = residual_ < tolerance_;
+        diverged_ = Float.isNaN(residual_) || Float.isInfinite(residual_);
+        return h;
+    }
+    
+    /**
+     *  Relaxes the system with step h until the residual is below the 
+     *  tolerance or maxIterations steps have been taken. Stops early when
+     *  the residual is no longer finite, see isDiverged().
+     *
+     *  @return true if the run converged
+     */
+    public boolean run(MassSpringSystem mss, float h, long maxIterations) {
+        long start = System.nanoTime();
+        long limit = iterations_ + maxIterations;
+        while (!converged_ && !diverged_ && iterations_ < limit) {
+            long t0 = (stats_ != null) ? stats_.begin() : 0;
+            step(mss, h);
+            if (stats_ != null) {
+                stats_.end(Instrumentation.STEP, t0);
+                stats_.stepped(1);
+            }
+            if (history_ != null) history_.stepped(mss, iterations_, 1);
+        }
+        wallNanos_ += System.nanoTime() - start;
+        return converged_;
+    }
+    
+    /**
+     *  Largest step the explicit scheme can take on this system, from a 
+     *  Gershgorin bound on the highest natural frequency: for every 
+     *  particle, w^2 <= 2 / m * (sum of the stiffness of its springs).
+     *  Includes a safety factor of 0.5: the bound only counts the axial
+     *  stiffness, and at 0.9 the geometric stiffness of highly strained
+     *  springs kept the kinetic energy peaking every few steps.
+     */
+    public static float stableTimeStep(MassSpringSystem mss) {
+        int M = mss.getNumMasses();
+        int[] from = mss.getSpringFrom();
+        int[] to = mss.getSpringTo();
+        float[] ks = mss.getSpringConstants();
+        float[] invMass = mss.getInverseMasses();
+        
+        float[] sum = new float[M];
+        for (int s = 0, S = mss.getNumSprings(); s < S; s++) {
+            float c = ks[s] / (invMass[from[s]] + invMass[to[s]]);
+            sum[from[s]] += c;
+            sum[to[s]] += c;
+        }
+        float w2 = 0f;
+        for (int i = 0; i < M; i++) {
+            w2 = Math.max(w2, 2f * sum[i] * invMass[i]);
+        }
+        return (w2 > 0f) ? 0.5f * 2f / (float) Math.sqrt(w2) : 1f;
+    }
+    
+    // Setters
+    
+    public void setTolerance(float tolerance) {  tolerance_ = tolerance;  }
+    public void setInstrumentation(Instrumentation stats) {  stats_ = stats;  }
+    public void setHistory(MetricsHistory history) {  history_ = history;  }
+    
+    // Getters
+    
+    public boolean isConverged()  {  return converged_;  }
+    public boolean isDiverged()   {  return diverged_;  }
+    public float getResidual()    {  return residual_;  }
+    public float getKineticEnergy() {  return lastKE_;  }
+    public long getIterations()   {  return iterations_;  }
+    public long getPeaks()        {  return peaks_;  }
+    public double getWallTime()   {  return wallNanos_ * 1e-9;  }
+    public MetricsHistory getHistory() {  return history_;  }
+    
+    public static void main(String[] args) { }
+    
+}
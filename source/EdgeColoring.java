@@ -0,0 +1,86 @@
+/*************************************************************************
+ *  Dependencies: Topology.java
+ *
+ *  Greedy edge coloring of a Topology. Edges of one color share no 
+ *  vertex, so the springs of a color can scatter their forces into the
+ *  two endpoints from any number of threads without locks or atomics.
+ *  
+ *  Edges are visited in index order and each takes the smallest color 
+ *  not used by an already colored edge incident to either endpoint, 
+ *  which needs at most 2 * maxDegree - 1 colors. The result is a 
+ *  permutation of the edge ids grouped by color, in CSR form: the edges
+ *  of color c are order[colorStart[c] .. colorStart[c + 1]).
+ *************************************************************************/
+
+public class EdgeColoring {
+    
+    private int[] color_;        // color of each edge
+    private int[] order_;        // edge ids grouped by color
+    private int[] colorStart_;   // offsets into order_ (size C + 1)
+    private int colors_;         // number of colors
+    
+    public EdgeColoring(Topology topology) {
+        
+        int E = topology.E();
+        int[] start = topology.getAdjacencyStart();
+        int[] incident = topology.getAdjacentEdges();
+        
+        int maxDegree = 0;
+        for (int v = 0; v < topology.V(); v++) {
+            maxDegree = Math.max(maxDegree, start[v + 1] - start[v]);
+        }
+        
+        color_ = new int[E];
+        java.util.Arrays.fill(color_, -1);
+        boolean[] taken = new boolean[2 * maxDegree + 1];
+        colors_ = 0;
+        
+        for (int e = 0; e < E; e++) {
+            int a = topology.from(e), b = topology.to(e);
+            
+            // mark colors of the colored edges around both endpoints
+            for (int k = start[a]; k < start[a + 1]; k++) {
+                int c = color_[incident[k]];
+                if (c >= 0) taken[c] = true;
+            }
+            for (int k = start[b]; k < start[b + 1]; k++) {
+                int c = color_[incident[k]];
+                if (c >= 0) taken[c] = true;
+            }
+            
+            int c = 0;
+            while (taken[c]) c++;
+            color_[e] = c;
+            colors_ = Math.max(colors_, c + 1);
+            
+            // clear the marks again
+            for (int k = start[a]; k < start[a + 1]; k++) {
+                int t = color_[incident[k]];
+                if (t >= 0) taken[t] = false;
+            }
+            for (int k = start[b]; k < start[b + 1]; k++) {
+                int t = color_[incident[k]];
+                if (t >= 0) taken[t] = false;
+            }
+        }
+        
+        // counting sort of the edges by color
+        colorStart_ = new int[colors_ + 1];
+        for (int e = 0; e < E; e++) colorStart_[color_[e] + 1]++;
+        for (int c = 0; c < colors_; c++) colorStart_[c + 1] += colorStart_[c];
+        
+        int[] fill = java.util.Arrays.copyOf(colorStart_, colors_);
+        order_ = new int[E];
+        for (int e = 0; e < E; e++) order_[fill[color_[e]]++] = e;
+    }
+    
+    // Getters
+    
+    public int colors()           {  return colors_;  }
+    public int color(int e)       {  return color_[e];  }
+    public int[] getOrder()       {  return order_;  }
+    public int[] getColorStart()  {  return colorStart_;  }
+    
+    public static void main(String[] args) { }
+    
+}
@@ -0,0 +1,236 @@
+/*************************************************************************
+ *  Dependencies: toxiclibscore.jar MassSpringSystem.java
+ *
+ *  External force fields of a mass spring system, applied at the start
+ *  of every force evaluation. Each field is a kernel that can be enabled
+ *  on its own:
+ *
+ *      GRAVITY      constant acceleration g
+ *      DRAG         viscous drag f = v * c, with c negative
+ *      PRESSURE     pressure p plus the normal component of a wind w on
+ *                   every triangle of a surface, f = A n (p + n . w),
+ *                   shared equally by its three corners
+ *      POINT_LOADS  constant forces on single particles
+ *
+ *  Gravity and drag are fused into the one loop that initializes the
+ *  forces: a disabled field enters it with a zero coefficient, so every
+ *  combination costs the same single pass. Surface loads loop over the
+ *  triangles and point loads over the loaded particles only, and run
+ *  only when enabled. All kernels write plain float arrays; forces are
+ *  stored as accelerations, so loads are divided by the particle mass.
+ *
+ *  Triangles are given as corner indices, three per triangle (see
+ *  FormBuilder.buildFaces()); n points along (b - a) x (c - a).
+ *************************************************************************/
+
+import java.util.Arrays;
+
+import toxi.geom.Vec3D;
+
+public class ForceFields {
+
+    public static final int GRAVITY = 1, DRAG = 2, PRESSURE = 4, POINT_LOADS = 8;
+
+    private final int M_;              // number of particles
+    private int enabled_ = GRAVITY | DRAG;
+
+    private float gx_, gy_, gz_;       // gravity
+    private float drag_ = MassSpringSystem.VISCOUS;  // drag coefficient
+
+    private int[] faces_;              // surface triangles, or null
+    private float pressure_;           // pressure along the face normals
+    private float wx_, wy_, wz_;       // wind
+
+    private int[] loadNodes_ = new int[0];     // loaded particles
+    private float[] loads_ = new float[0];     // x y z force of each
+    private int numLoads_;
+
+    private long modCount_;            // number of edits, see MassSpringSystem.getModCount()
+
+    // gather buffers for systems in Vec3D mode
+    private float[] pos_, frc_, invMass_;
+
+    // fields of a system of M particles
+    public ForceFields(int M) {
+        M_ = M;
+    }
+
+    // validate that i is a valid particle index
+    private void validate(int i) {
+        if (i < 0 || i >= M_) {
+            throw new IndexOutOfBoundsException("index " + i + " is not between 0 and " + M_);
+        }
+    }
+
+    /**
+     *  Initializes frc for particles lo .. hi - 1 with gravity and drag,
+     *  the fields that act on every particle, in one fused loop
+     */
+    public void applyBody(int lo, int hi, float[] vel, float[] frc) {
+        final float gx = gravityX(), gy = gravityY(), gz = gravityZ(), c = getDrag();
+        for (int a = lo * 3, n = hi * 3; a < n; a += 3) {
+            frc[a]     = gx + vel[a]     * c;
+            frc[a + 1] = gy + vel[a + 1] * c;
+            frc[a + 2] = gz + vel[a + 2] * c;
+        }
+    }
+
+    /**
+     *  Adds the surface and point loads, if enabled, to frc
+     */
+    public void applyLoads(float[] pos, float[] frc, float[] invMass) {
+        if (isEnabled(PRESSURE) && faces_ != null) applyPressure(pos, frc, invMass);
+        if (isEnabled(POINT_LOADS)) applyPointLoads(frc, invMass);
+    }
+
+    /**
+     *  Initializes frc (size 3 * M) with every enabled field
+     */
+    public void apply(float[] pos, float[] vel, float[] frc, float[] invMass) {
+        applyBody(0, invMass.length, vel, frc);
+        applyLoads(pos, frc, invMass);
+    }
+
+    /**
+     *  Vec3D mode counterpart of apply(): replaces forces[i] by a new
+     *  vector for every particle, as the integrators of that mode keep
+     *  references to them.
+     */
+    public void apply(Vec3D[] state, Vec3D[] forces, float[] masses) {
+        final float gx = gravityX(), gy = gravityY(), gz = gravityZ(), c = getDrag();
+        int M = masses.length;
+        for (int i = 0; i < M; i++) {
+            Vec3D v = state[i*2 + 1];
+            forces[i] = new Vec3D(gx + v.x * c, gy + v.y * c, gz + v.z * c);
+        }
+        if (!hasLoads()) return;
+
+        if (pos_ == null || pos_.length != 3 * M) {
+            pos_ = new float[3 * M];
+            frc_ = new float[3 * M];
+            invMass_ = new float[M];
+        }
+        for (int i = 0; i < M; i++) {
+            Vec3D p = state[i*2];
+            pos_[i*3] = p.x;  pos_[i*3 + 1] = p.y;  pos_[i*3 + 2] = p.z;
+            invMass_[i] = 1f / masses[i];
+        }
+        Arrays.fill(frc_, 0f);
+        applyLoads(pos_, frc_, invMass_);
+        for (int i = 0; i < M; i++) {
+            forces[i].addSelf(frc_[i*3], frc_[i*3 + 1], frc_[i*3 + 2]);
+        }
+    }
+
+    // pressure and wind on the surface triangles
+    private void applyPressure(float[] pos, float[] frc, float[] invMass) {
+        final int[] f = faces_;
+        final float p = pressure_, wx = wx_, wy = wy_, wz = wz_;
+
+        for (int t = 0; t < f.length; t += 3) {
+            int a = f[t] * 3, b = f[t + 1] * 3, c = f[t + 2] * 3;
+
+            float ux = pos[b] - pos[a], uy = pos[b + 1] - pos[a + 1], uz = pos[b + 2] - pos[a + 2];
+            float vx = pos[c] - pos[a], vy = pos[c + 1] - pos[a + 1], vz = pos[c + 2] - pos[a + 2];
+
+            // area vector A n, half the cross product
+            float nx = 0.5f * (uy * vz - uz * vy);
+            float ny = 0.5f * (uz * vx - ux * vz);
+            float nz = 0.5f * (ux * vy - uy * vx);
+            float area = (float) Math.sqrt(nx*nx + ny*ny + nz*nz);
+            if (area == 0f) continue;
+
+            // third of A n (p + n . w) to every corner
+            float q = (p + (nx * wx + ny * wy + nz * wz) / area) / 3f;
+            float fx = nx * q, fy = ny * q, fz = nz * q;
+
+            float ia = invMass[f[t]], ib = invMass[f[t + 1]], ic = invMass[f[t + 2]];
+            frc[a] += fx * ia;  frc[a + 1] += fy * ia;  frc[a + 2] += fz * ia;
+            frc[b] += fx * ib;  frc[b + 1] += fy * ib;  frc[b + 2] += fz * ib;
+            frc[c] += fx * ic;  frc[c + 1] += fy * ic;  frc[c + 2] += fz * ic;
+        }
+    }
+
+    private void applyPointLoads(float[] frc, float[] invMass) {
+        for (int k = 0; k < numLoads_; k++) {
+            int i = loadNodes_[k];
+            float im = invMass[i];
+            frc[i*3]     += loads_[k*3]     * im;
+            frc[i*3 + 1] += loads_[k*3 + 1] * im;
+            frc[i*3 + 2] += loads_[k*3 + 2] * im;
+        }
+    }
+
+    // Setters
+
+    public void enable(int fields, boolean on) {
+        enabled_ = on ? (enabled_ | fields) : (enabled_ & ~fields);
+        modCount_++;
+    }
+    public void setEnabled(int fields)                {  enabled_ = fields;  modCount_++;  }
+
+    public void setGravity(float x, float y, float z) {  gx_ = x;  gy_ = y;  gz_ = z;  modCount_++;  }
+    public void setDrag(float c)                      {  drag_ = c;  modCount_++;  }
+
+    // triangles the pressure and wind act on, three corner indices each
+    public void setSurface(int[] faces)                {  faces_ = faces;  modCount_++;  }
+    public void setPressure(float p)                   {  pressure_ = p;  enable(PRESSURE, true);  }
+    public void setWind(float x, float y, float z)     {  wx_ = x;  wy_ = y;  wz_ = z;  enable(PRESSURE, true);  }
+
+    /**
+     *  Sets the load on particle i, replacing an earlier load on it
+     *
+     *  @throws java.lang.IndexOutOfBoundsException unless 0 <= i < M
+     */
+    public void setPointLoad(int i, float fx, float fy, float fz) {
+        validate(i);
+        int k = 0;
+        while (k < numLoads_ && loadNodes_[k] != i) k++;
+        if (k == numLoads_) {
+            if (k == loadNodes_.length) {
+                loadNodes_ = Arrays.copyOf(loadNodes_, Math.max(4, 2 * k));
+                loads_ = Arrays.copyOf(loads_, 3 * loadNodes_.length);
+            }
+            loadNodes_[k] = i;
+            numLoads_++;
+        }
+        loads_[k*3] = fx;  loads_[k*3 + 1] = fy;  loads_[k*3 + 2] = fz;
+        enable(POINT_LOADS, true);
+    }
+
+    public void clearPointLoads() {  numLoads_ = 0;  modCount_++;  }
+
+    // Getters
+
+    public boolean isEnabled(int field)  {  return (enabled_ & field) != 0;  }
+    public int getEnabled()              {  return enabled_;  }
+    public long getModCount()            {  return modCount_;  }
+    public int getNumMasses()            {  return M_;  }
+    public boolean hasLoads() {
+        return (isEnabled(PRESSURE) && faces_ != null) || (isEnabled(POINT_LOADS) && numLoads_ > 0);
+    }
+
+    // effective values, zero while the field is disabled
+    public float gravityX()  {  return isEnabled(GRAVITY) ? gx_ : 0f;  }
+    public float gravityY()  {  return isEnabled(GRAVITY) ? gy_ : 0f;  }
+    public float gravityZ()  {  return isEnabled(GRAVITY) ? gz_ : 0f;  }
+    public float getDrag()   {  return isEnabled(DRAG) ? drag_ : 0f;  }
+
+    // values as set, also while the field is disabled
+    public Vec3D getGravity()     {  return new Vec3D(gx_, gy_, gz_);  }
+    public float getDragCoefficient() {  return drag_;  }
+
+    public float getPressure()    {  return pressure_;  }
+    public Vec3D getWind()        {  return new Vec3D(wx_, wy_, wz_);  }
+    public int[] getSurface()     {  return faces_;  }
+    public int getNumPointLoads() {  return numLoads_;  }
+
+    // copies the loaded particles and their x y z loads, getNumPointLoads() of each
+    public void copyPointLoads(int[] nodes, float[] loads) {
+        System.arraycopy(loadNodes_, 0, nodes, 0, numLoads_);
+        System.arraycopy(loads_, 0, loads, 0, 3 * numLoads_);
+    }
+
+    public static void main(String[] args) { }
+
+}
@@ -0,0 +1,373 @@
+/*************************************************************************
+ *  Dependencies: toxiclibscore.jar Topology.java
+ *
+ *  Builds the topology and the initial flat geometry of the grid shell 
+ *  patterns used by the application, without any Processing dependency,
+ *  so the same forms can be generated by the GUI and by headless runs.
+ *
+ *  Topology types:
+ *      0 - regular grid
+ *      1 - grid with diagonal bracing along the edges and the two center
+ *          lines (odd number of joints only, an even count is reduced)
+ *      2 - grid with one random diagonal per face
+ *      3 - grid boundary with every face connected to its centroid
+ *************************************************************************/
+
+import java.util.Random;
+
+import toxi.geom.Vec3D;
+
+public class FormBuilder {
+    
+    private int type_;
+    private int numW_, numH_;
+    private int V_;
+    
+    private float width_, length_;   // plan dimensions of the grid
+    private Random random_;          // diagonals of type 2
+    
+    public FormBuilder(int type, int numW, int numH) {
+        type_ = type;
+        numW_ = numW;
+        numH_ = numH;
+        V_ = numW * numH;
+        width_ = 700;
+        length_ = 700;
+        random_ = new Random();
+    }
+    
+    /**
+     *  Constructs the topology for the current type. Grids are stored row
+     *  by row, so numW is the row stride for every type. Type 1 needs an
+     *  odd number of joints per side and reduces an even numW or numH by
+     *  one; read them back with numW() and numH().
+     */
+    public Topology buildTopology() {
+        
+        int type = type_;
+        Topology topology = null;
+        
+        if (type == 0) { // regular grid mesh
+            // Construct topology
+            topology = new Topology(V_);
+        
+            // horizontal
+            for (int y = 0; y < numH_; y++) {
+                for (int x = 0; x < numW_ - 1; x++) {
+                    topology.addEdge(y * numW_ + x, y * numW_ + x + 1);
+                }
+            }
+        
+            // vertical
+            for (int x = 0; x < numW_; x++) {
+                for (int y = 0; y < numH_ - 1; y++) {
+                    topology.addEdge(y * numW_ + x, (y + 1) * numW_ + x);
+                }
+            }
+            
+        } else if (type == 1) { // only for odd number of joints
+            
+            if (numW_ % 2 == 0) numW_--;
+            if (numH_ % 2 == 0) numH_--;
+            V_ = numW_ * numH_;
+            
+            // Construct topology
+            topology = new Topology(V_);
+            
+            // diagonal
+            for (int y = 0; y < numH_ - 1; y++) {
+                for (int x = 0; x < numW_ - 1; x++) {
+                  
+                    // first row
+                    if ( (y == 0 && (x > 1 && x < numW_/2)) ) {
+                       topology.addEdge(y * numW_ + x, y * numW_ + x + numW_ - 1);
+                    }
+                    if ( (y == 0 && (x > numW_/2 && x < numW_-2)) ) {
+                       topology.addEdge(y * numW_ + x, y * numW_ + x + 1 + numW_ );
+                    }
+                    // last row
+                    if ( (y == numH_ - 2 && (x > 0 && x < numW_/2-1)) ) {
+                       topology.addEdge(y * numW_ + x, y * numW_ + x + 1 + numW_ );
+                    }
+                    if ( (y == numH_ - 2 && (x > numW_/2+1 && x < numW_)) ) {
+                       topology.addEdge(y * numW_ + x, y * numW_ + x - 1 + numW_ );
+                    }
+                    
+                    // first column
+                    if ( (x == 0 && (y < numH_/2 && y > 1)) ) {
+                       topology.addEdge(y * numW_ + x, y * numW_ + x + 1 - numW_ );
+                    }
+                    if ( (x == 0 && (y > numH_/2 && y < numH_ - 2) ) ) {
+                       topology.addEdge(y * numW_ + x, y * numW_ + x + 1 + numW_ );
+                    }
+                    // last column
+                    if ( (x == numW_ - 2 && (y < numH_/2 - 1 && y > 0)) ) {
+                       topology.addEdge(y * numW_ + x, y * numW_ + x + 1 + numW_ );
+                    }
+                    if ( (x == numW_ - 2 && (y > numH_/2 + 1 && y < numH_) ) ) {
+                       topology.addEdge(y * numW_ + x, y * numW_ + x + 1 - numW_ );
+                    }
+                    
+                    // diagonal elements horizontal stride
+                    if ( (x >= numW_/2 && x < numW_-1) && (y == numH_/2) ) {
+                        topology.addEdge(y * numW_ + x, y * numW_ + x + 1 + numW_);
+                        topology.addEdge(y * numW_ + x, y * numW_ + x + 1 - numW_); 
+                    }
+                    if ( (x <= numW_/2 && x > 0) && (y == numH_/2) ) {
+                        topology.addEdge(y * numW_ + x, y * numW_ + x - 1 + numW_);
+                        topology.addEdge(y * numW_ + x, y * numW_ + x - 1 - numW_);  
+                    }
+                    // diagonal elements vertical stride
+                    if ( (y >= numH_/2 && y < numH_-1) && (x == numW_/2) ) {
+                        topology.addEdge(y * numW_ + x, y * numW_ + x + 1 + numW_);
+                        topology.addEdge(y * numW_ + x, y * numW_ + x - 1 + numW_); 
+                    }
+                    if ( (y <= numH_/2 && y > 0) && (x == numW_/2) ) {
+                        topology.addEdge(y * numW_ + x, y * numW_ + x - 1 - numW_);
+                        topology.addEdge(y * numW_ + x, y * numW_ + x + 1 - numW_);  
+                    }
+                    
+                }
+            }
+            
+            // horizontal
+            for (int y = 0; y < numH_; y++) {
+                for (int x = 0; x < numW_ - 1; x++) {
+                    topology.addEdge(y * numW_ + x, y * numW_ + x + 1);
+                }
+            }
+            
+            // vertical
+            for (int x = 0; x < numW_; x++) {
+                for (int y = 0; y < numH_ - 1; y++) {
+                    topology.addEdge(y * numW_ + x, (y + 1) * numW_ + x);
+                }
+            }
+            
+        } else if (type == 2) {
+            
+            // Construct topology
+            topology = new Topology(V_);
+            
+            // random diagonals
+            for (int y = 0; y < numH_ - 1; y++) {
+                for (int x = 0; x < numW_ - 1; x++) {
+                    int i = random_.nextInt(2);
+                    if ( i == 1) {
+                        topology.addEdge(y * numW_ + x, y * numW_ + x + 1 + numW_);
+                    } else {
+                        topology.addEdge(y * numW_ + x + 1, y * numW_ + x + numW_);
+                    }
+                }
+            }
+          
+            // horizontal
+            for (int y = 0; y < numH_; y++) {
+                for (int x = 0; x < numW_ - 1; x++) {
+                    topology.addEdge(y * numW_ + x, y * numW_ + x + 1);
+                }
+            }
+            
+            // vertical
+            for (int x = 0; x < numW_; x++) {
+                for (int y = 0; y < numH_ - 1; y++) {
+                    topology.addEdge(y * numW_ + x, (y + 1) * numW_ + x);
+                }
+            }
+          
+        } else if (type == 3) {
+            
+            int F = (numW_ - 1) * (numH_ - 1);
+            int Vn = V_ + F;
+            
+            // Construct topology
+            topology = new Topology(Vn);
+          
+            // horizontal
+            for (int y = 0; y < 2; y++) {
+                for (int x = 0; x < numW_ - 1; x++) {
+                    topology.addEdge(x + y*(numW_*numH_ - numW_), x + y*(numW_*numH_ - numW_) + 1);
+                }
+            }
+            
+            // vertical
+            for (int x = 0; x < 2; x++) {
+                for (int y = 0; y < numH_ - 1; y++) {
+                    topology.addEdge( x*(numW_-1) + y*numW_, x*(numW_-1) + (y+1)*numW_ );
+                }
+            }
+          
+            // diagonal
+            for (int y = 0; y < numH_ - 1; y++) {
+                for (int x = 0; x < numW_ - 1; x++) {
+                    int id1 = y*(numW_-1) + x;
+                    int id2 = y*numW_ + x;
+                    
+                    topology.addEdge(id2, id1 + numW_*numH_);
+                    topology.addEdge(id2 + 1, id1 + numW_*numH_);
+                    topology.addEdge(id2 + numW_, id1 + numW_*numH_);
+                    topology.addEdge(id2 + numW_ + 1, id1 + numW_*numH_);
+                }
+            }
+        }
+        
+        return topology;
+    }
+
+    public Vec3D[] buildGeometry() {
+        
+        int type = type_;
+        Vec3D[] geometry = null;
+        
+        if (type == 0 || type == 1 || type == 2) {
+            float stepW = width_ / (numW_ - 1);
+            float stepL = length_ / (numH_ - 1);
+            
+            geometry = new Vec3D[V_];
+            for (int j = 0; j < numH_; j++) {
+                for (int i = 0; i < numW_; i++) {
+                    geometry[j*numW_ + i] = new Vec3D(i * stepW, j * stepL, 0f);
+                }
+            }
+        } 
+        else if (type == 3) {
+          
+            float stepW = width_ / (numW_ - 1);
+            float stepL = length_ / (numH_ - 1);
+            
+            int F = (numW_ - 1) * (numH_ - 1);
+            int Vn = V_ + F;
+            
+            geometry = new Vec3D[Vn];
+            for (int j = 0; j < numH_; j++) {
+                for (int i = 0; i < numW_; i++) {
+                    geometry[j*numW_ + i] = new Vec3D(i * stepW, j * stepL, 0f);
+                }
+            }
+            
+            // internal points
+            for (int i = 0; i < numH_ - 1; i++) {
+                for (int j = 0; j < numW_ - 1; j++) {
+                  
+                    int id = i * (numW_) + j;
+                    
+                    Vec3D p0 = geometry[id];
+                    Vec3D p1 = geometry[id + 1];
+                    Vec3D p2 = geometry[id + numW_];
+                    Vec3D p3 = geometry[id + 1 + numW_];
+                    
+                    int id2 = i * (numW_-1) + j;
+                    
+                    geometry[numW_*numH_ + id2] = p0.add(p1).add(p2).add(p3).scale(1f/4);
+                    
+                }
+            }
+            
+        }
+        return geometry;
+    }
+    
+    /**
+     *  Triangle index list of the surface, three particle indices per
+     *  triangle. Each grid face is split into two triangles, or into four
+     *  around its centroid for type 3. Connectivity only depends on type
+     *  and grid size, so this is computed once per topology.
+     */
+    public int[] buildFaces() {
+        int per = (type_ == 3) ? 4 : 2;
+        int[] faces = new int[(numW_ - 1) * (numH_ - 1) * per * 3];
+        int n = 0;
+        
+        for (int y = 0; y < numH_ - 1; y++) {
+            for (int x = 0; x < numW_ - 1; x++) {
+                int p0 = y * numW_ + x;
+                int p1 = p0 + 1;
+                int p2 = p0 + 1 + numW_;
+                int p3 = p0 + numW_;
+                
+                if (type_ != 3) {
+                    // two triangles for each face
+                    faces[n++] = p0;  faces[n++] = p3;  faces[n++] = p2;
+                    faces[n++] = p0;  faces[n++] = p2;  faces[n++] = p1;
+                } else {
+                    // four triangles around the centroid, wound as above
+                    int p4 = numW_ * numH_ + y * (numW_ - 1) + x;
+                    faces[n++] = p0;  faces[n++] = p3;  faces[n++] = p4;
+                    faces[n++] = p0;  faces[n++] = p4;  faces[n++] = p1;
+                    faces[n++] = p1;  faces[n++] = p4;  faces[n++] = p2;
+                    faces[n++] = p2;  faces[n++] = p4;  faces[n++] = p3;
+                }
+            }
+        }
+        return faces;
+    }
+    
+    /**
+     *  Total number of particles of the current type, including the face
+     *  centroids of type 3
+     */
+    public int numParticles() {
+        if (type_ == 3) return V_ + (numW_ - 1) * (numH_ - 1);
+        return V_;
+    }
+    
+    // the four corners, pinned by default
+    public int[] cornerSupports() {
+        return new int[] { 0, numW_ - 1, numW_ * (numH_ - 1), (numW_ * numH_) - 1 };
+    }
+    
+    // every joint on the boundary of the grid
+    public int[] edgeSupports() {
+        int[] ids = new int[2 * (numW_ + numH_) - 4];
+        int n = 0;
+        for (int x = 0; x < numW_; x++) {
+            ids[n++] = x;
+            ids[n++] = (numH_ - 1) * numW_ + x;
+        }
+        for (int y = 1; y < numH_ - 1; y++) {
+            ids[n++] = y * numW_;
+            ids[n++] = y * numW_ + numW_ - 1;
+        }
+        return ids;
+    }
+    
+    // the two opposite sides x = 0 and x = numW - 1, a barrel vault
+    public int[] sideSupports() {
+        int[] ids = new int[2 * numH_];
+        for (int y = 0; y < numH_; y++) {
+            ids[y * 2] = y * numW_;
+            ids[y * 2 + 1] = y * numW_ + numW_ - 1;
+        }
+        return ids;
+    }
+    
+    /**
+     *  Support layout by name: "corners", "edges" or "sides". Call after
+     *  buildTopology(), which may change the grid size.
+     *
+     *  @throws IllegalArgumentException for an unknown name
+     */
+    public int[] supports(String layout) {
+        if (layout.equals("corners")) return cornerSupports();
+        if (layout.equals("edges"))   return edgeSupports();
+        if (layout.equals("sides"))   return sideSupports();
+        throw new IllegalArgumentException("unknown support layout " + layout);
+    }
+    
+    // Setters
+    
+    public void setSize(float width, float length) {
+        width_ = width;
+        length_ = length;
+    }
+    public void setRandom(Random random) {  random_ = random;  }
+    
+    // Getters
+    
+    public int type() {  return type_;  }
+    public int numW() {  return numW_;  }
+    public int numH() {  return numH_;  }
+    
+    public static void main(String[] args) { }
+    
+}
@@ -0,0 +1,215 @@
+/*************************************************************************
+ *  Compilation:  javac -cp toxiclibscore.jar FormFindingCLI.java
+ *  Execution:    java -cp toxiclibscore.jar:. FormFindingCLI [options]
+ *  Dependencies: toxiclibscore.jar FormFindingEngine.java
+ *
+ *  Command line runner for headless form finding. Builds the form from 
+ *  the options, relaxes it to equilibrium and writes the particle 
+ *  positions, and optionally the surface mesh and the convergence 
+ *  history. A one line summary is printed to standard output; a run is
+ *  stopped and marked diverged=true once its residual is not finite.
+ *
+ *  Options (defaults in brackets):
+ *      -topology  <0..3>          topology type [0]
+ *      -n         <int>           joints per side, or -w and -h [23]
+ *      -k         <float>         spring constant [0.07]
+ *      -rest      <float>         spring rest length [7]
+ *      -gravity   <float>         gravity [0.2]
+ *      -pressure  <float>         pressure normal to the surface [0]
+ *      -wind      <x,y,z>         wind, acting normal to the surface [none]
+ *      -load      <i,fx,fy,fz>    point load on particle i, repeatable
+ *      -supports  <layout>|i,j,.. pinned particles, layout is corners,
+ *                                 edges or sides [corners]
+ *      -seed      <long>          seed for random diagonals [0]
+ *      -contact   <float>         particle radius for self-contact [off]
+ *      -kernel    scalar|vector   spring pass; vector needs JDK 16+ and
+ *                                 --add-modules jdk.incubator.vector, and
+ *                                 falls back to scalar without [scalar]
+ *      -step      <float>         relaxation time step [stable limit]
+ *      -tol       <float>         residual force tolerance [0.001]
+ *      -maxIter   <long>          iteration limit [1000000]
+ *      -out       <file>          output file, x,y,z per line [stdout]
+ *      -mesh      <file>          surface mesh, .stl .ply or .obj [none]
+ *      -checkpoint <file>         write a checkpoint while relaxing [none]
+ *      -every     <long>          iterations between checkpoints [10000]
+ *      -restore   <file>          resume from a checkpoint of the same form
+ *      -record    <file>          record a trajectory while relaxing [none]
+ *      -recordEvery <int>         iterations between recorded frames [100]
+ *      -history   <file>          convergence metrics, step,sumFL,kinetic,
+ *                                 residual,maxStrain,reaction per line [none]
+ *      -historyEvery <int>        iterations between history samples [100]
+ *      -jmx       <name>          time the run, register the timers as the
+ *                                 MBean DynamicFormFinding:type=Simulation,
+ *                                 name=<name> and print them at the end
+ *************************************************************************/
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+public class FormFindingCLI {
+    
+    // parse "i,j,k" into particle indices
+    static int[] parseSupports(String str) {
+        String[] tokens = str.split(",");
+        int[] ids = new int[tokens.length];
+        for (int i = 0; i < tokens.length; i++) {
+            ids[i] = Integer.parseInt(tokens[i].trim());
+        }
+        return ids;
+    }
+    
+    // parse n comma separated numbers
+    static float[] parseFloats(String str, int n) {
+        String[] tokens = str.split(",");
+        if (tokens.length != n) {
+            throw new IllegalArgumentException("expected " + n + " comma separated values, got " + str);
+        }
+        float[] values = new float[n];
+        for (int i = 0; i < n; i++) {
+            values[i] = Float.parseFloat(tokens[i].trim());
+        }
+        return values;
+    }
+    
+    /**
+     *  Applies the options in args to the engine and returns the values of
+     *  -out, -mesh, -restore and -history, each null when not given.
+     *
+     *  @throws IllegalArgumentException on an unknown or incomplete option,
+     *          or a support or load index outside the grid
+     */
+    static String[] configure(FormFindingEngine engine, String[] args) {
+        String out = null, mesh = null, restore = null, history = null;
+        String checkpoint = null;
+        long every = 10000;
+        String record = null;
+        int recordEvery = 100;
+        int historyEvery = 100;
+        int numW = engine.numW(), numH = engine.numH();
+        
+        for (int i = 0; i < args.length; i++) {
+            String opt = args[i];
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("missing value for " + opt);
+            }
+            String val = args[++i];
+            
+            if      (opt.equals("-topology")) engine.setTopologyType(Integer.parseInt(val));
+            else if (opt.equals("-n"))        numW = numH = Integer.parseInt(val);
+            else if (opt.equals("-w"))        numW = Integer.parseInt(val);
+            else if (opt.equals("-h"))        numH = Integer.parseInt(val);
+            else if (opt.equals("-k"))        engine.setkSpring(Float.parseFloat(val));
+            else if (opt.equals("-rest"))     engine.setRestLength(Float.parseFloat(val));
+            else if (opt.equals("-gravity"))  engine.setGravity(Float.parseFloat(val));
+            else if (opt.equals("-pressure")) engine.setPressure(Float.parseFloat(val));
+            else if (opt.equals("-wind")) {
+                float[] w = parseFloats(val, 3);
+                engine.setWind(w[0], w[1], w[2]);
+            }
+            else if (opt.equals("-load")) {
+                float[] l = parseFloats(val, 4);
+                engine.addPointLoad((int) l[0], l[1], l[2], l[3]);
+            }
+            else if (opt.equals("-supports")) {
+                if (Character.isDigit(val.charAt(0))) engine.setSupports(parseSupports(val));
+                else engine.setSupportLayout(val);
+            }
+            else if (opt.equals("-seed"))     engine.setSeed(Long.parseLong(val));
+            else if (opt.equals("-contact"))  engine.setContactRadius(Float.parseFloat(val));
+            else if (opt.equals("-kernel"))   engine.setSpringKernel(val);
+            else if (opt.equals("-step"))     engine.setTimeStep(Float.parseFloat(val));
+            else if (opt.equals("-tol"))      engine.setTolerance(Float.parseFloat(val));
+            else if (opt.equals("-maxIter"))  engine.setMaxIterations(Long.parseLong(val));
+            else if (opt.equals("-out"))      out = val;
+            else if (opt.equals("-mesh"))     mesh = val;
+            else if (opt.equals("-checkpoint")) checkpoint = val;
+            else if (opt.equals("-every"))    every = Long.parseLong(val);
+            else if (opt.equals("-restore"))  restore = val;
+            else if (opt.equals("-record"))   record = val;
+            else if (opt.equals("-recordEvery")) recordEvery = Integer.parseInt(val);
+            else if (opt.equals("-history"))  history = val;
+            else if (opt.equals("-historyEvery")) historyEvery = Integer.parseInt(val);
+            else if (opt.equals("-jmx"))      engine.setInstrumentation(new Instrumentation().register(val));
+            else throw new IllegalArgumentException("unknown option " + opt);
+        }
+        
+        engine.setGridSize(numW, numH);
+        engine.checkIndices(numW * numH);
+        if (checkpoint != null) engine.setCheckpoint(checkpoint, every);
+        if (record != null) engine.setRecording(record, recordEvery);
+        if (history != null) engine.setHistory(new MetricsHistory(1 << 16, historyEvery));
+        return new String[] { out, mesh, restore, history };
+    }
+    
+    public static void main(String[] args) throws IOException {
+        
+        FormFindingEngine engine = new FormFindingEngine();
+        String out, mesh, restore, history;
+        try {
+            String[] files = configure(engine, args);
+            out = files[0];
+            mesh = files[1];
+            restore = files[2];
+            history = files[3];
+            
+            if (restore != null) engine.restore(restore);
+            else engine.build();
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("usage: java FormFindingCLI [-topology t] [-n joints] [-k ks] [-rest l]"
+                             + " [-gravity g] [-pressure p] [-wind x,y,z] [-load i,fx,fy,fz] [-supports corners|edges|sides|i,j,..] [-contact r] [-kernel scalar|vector] [-step h] [-tol r] [-out file] [-mesh file]"
+                             + " [-checkpoint file] [-every n] [-restore file] [-record file] [-recordEvery n]"
+                             + " [-history file] [-historyEvery n] [-jmx name]");
+            System.exit(2);
+            return;
+        }
+        
+        boolean converged = engine.run();
+        
+        DynamicRelaxation dr = engine.getRelaxation();
+        MassSpringSystem mss = engine.getSystem();
+        
+        Writer w = (out != null) ? new FileWriter(out) : new OutputStreamWriter(System.out);
+        try {
+            engine.writePositions(w);
+        } finally {
+            if (out != null) w.close();
+        }
+        
+        if (mesh != null) engine.writeMesh(mesh);
+        if (history != null) {
+            Writer h = new FileWriter(history);
+            try {
+                engine.getHistory().writeCsv(h);
+            } finally {
+                h.close();
+            }
+        }
+        
+        String summary = "particles=" + mss.getNumMasses() 
+                       + " springs=" + mss.getNumSprings()
+                       + " converged=" + converged
+                       + (dr.isDiverged() ? " diverged=true" : "")
+                       + " iterations=" + engine.getIterations()
+                       + " residual=" + dr.getResidual()
+                       + " sigmaFL=" + mss.getSumFL()
+                       + " maxStrain=" + mss.getMaxStrain()
+                       + " reaction=" + mss.getSupportReactionNorm()
+                       + " maxDisplacement=" + engine.getMaxDisplacement()
+                       + " kernel=" + engine.getSpringKernel()
+                       + " time=" + dr.getWallTime() + "s";
+        
+        // keep stdout clean for the positions when no output file is given
+        if (out != null) System.out.println(summary);
+        else System.err.println(summary);
+        
+        if (engine.getInstrumentation() != null) {
+            System.err.print(engine.getInstrumentation().summary());
+        }
+        
+        System.exit(converged ? 0 : 1);
+    }
+    
+}
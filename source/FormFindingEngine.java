@@ -0,0 +1,325 @@
+/*************************************************************************
+ *  Dependencies: toxiclibscore.jar FormBuilder.java MassSpringSystem.java
+ *                DynamicRelaxation.java MeshExporter.java Checkpoint.java
+ *                TrajectoryRecorder.java Instrumentation.java
+ *                MetricsHistory.java ContactForces.java ForceFields.java
+ *                SpringKernel.java
+ *
+ *  Headless form finding. Builds a topology and flat geometry from plain
+ *  parameters, sets up a primitive mass spring system and relaxes it to
+ *  equilibrium, without Processing, ControlP5 or PeasyCam. This is the 
+ *  same model the application simulates, driven by dynamic relaxation 
+ *  so that a run ends on its own once the form has converged. Long runs
+ *  can checkpoint every so many iterations and resume from a checkpoint,
+ *  and record a trajectory of the relaxation for replay, and keep a
+ *  history of the convergence metrics.
+ *************************************************************************/
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+
+import toxi.geom.Vec3D;
+
+public class FormFindingEngine {
+    
+    // model parameters, defaults as in the application
+    private int topolType_ = 0;
+    private int numW_ = 23, numH_ = 23;
+    private float width_ = 700, length_ = 700;
+    private float kSpring_ = 0.07f;
+    private float restLength_ = 7f;
+    private float gravity_ = 0.2f;
+    private int[] supports_;          // explicit supports, or null
+    private String layout_ = "corners"; // named layout used when supports_ is null
+    private long seed_ = 0;           // random diagonals of type 2
+    private float contactRadius_ = 0f; // particle radius for self-contact, 0 for none
+    private float pressure_ = 0f;     // pressure normal to the surface
+    private float[] wind_;            // wind x y z, or null
+    private int[] loadNodes_ = new int[0];   // particles with a point load
+    private float[] loads_ = new float[0];   // x y z load of each
+    private String kernel_ = "scalar"; // spring pass, scalar or vector
+    
+    // solver parameters
+    private float h_ = 0f;            // time step of the built system
+    private boolean autoStep_ = true; // pick the stable explicit step on every build
+    private float tolerance_ = 1e-3f;
+    private long maxIterations_ = 1000000;
+    private String checkpointFile_;   // autosave file, or null
+    private long checkpointEvery_ = 10000;
+    private String recordFile_;       // trajectory file, or null
+    private int recordEvery_ = 100;
+    private Instrumentation stats_;   // optional timers, or null
+    private MetricsHistory history_;  // optional convergence history, or null
+    
+    private Topology topology_;
+    private Vec3D[] geometry_;
+    private int[] faces_;
+    private MassSpringSystem mss_;
+    private DynamicRelaxation dr_;
+    
+    public FormFindingEngine() { }
+    
+    /**
+     *  Builds topology, geometry and the mass spring system from the 
+     *  current parameters. Called by run() if needed.
+     */
+    public void build() {
+        FormBuilder builder = new FormBuilder(topolType_, numW_, numH_);
+        builder.setSize(width_, length_);
+        builder.setRandom(new java.util.Random(seed_));
+        
+        topology_ = builder.buildTopology();
+        numW_ = builder.numW();
+        numH_ = builder.numH();
+        geometry_ = builder.buildGeometry();
+        faces_ = builder.buildFaces();
+        
+        int[] fixed = (supports_ != null) ? supports_ : builder.supports(layout_);
+        checkIndices(topology_.V());
+        
+        mss_ = new MassSpringSystem(topology_, true);
+        mss_.initialize(geometry_, fixed);
+        mss_.setupSprings(kSpring_, -0.0004f);
+        mss_.setRestLenght(restLength_);
+        mss_.setGravity(gravity_);
+        setupLoads(mss_);
+        
+        dr_ = new DynamicRelaxation(tolerance_);
+        dr_.setInstrumentation(stats_);
+        dr_.setHistory(history_);
+        mss_.setInstrumentation(stats_);
+        if (autoStep_) h_ = DynamicRelaxation.stableTimeStep(mss_);
+    }
+    
+    /**
+     *  Checks that the explicit supports and the point loads refer to
+     *  particles 0 .. n - 1.
+     *
+     *  @throws java.lang.IllegalArgumentException naming the first index
+     *          out of range
+     */
+    public void checkIndices(int n) {
+        if (supports_ != null) {
+            for (int i : supports_) {
+                if (i < 0 || i >= n) throw new IllegalArgumentException("support " + i + " is not between 0 and " + (n - 1));
+            }
+        }
+        for (int i : loadNodes_) {
+            if (i < 0 || i >= n) throw new IllegalArgumentException("load on " + i + " is not between 0 and " + (n - 1));
+        }
+    }
+    
+    // loads, contact and spring pass from the engine parameters, also
+    // applied to a restored checkpoint
+    private void setupLoads(MassSpringSystem mss) {
+        ForceFields fields = mss.getForceFields();
+        fields.setSurface(faces_);
+        if (pressure_ != 0f) fields.setPressure(pressure_);
+        if (wind_ != null) fields.setWind(wind_[0], wind_[1], wind_[2]);
+        for (int k = 0; k < loadNodes_.length; k++) {
+            fields.setPointLoad(loadNodes_[k], loads_[k*3], loads_[k*3 + 1], loads_[k*3 + 2]);
+        }
+        if (contactRadius_ > 0f) mss.setContactForces(new ContactForces(mss, contactRadius_));
+        
+        // the SIMD kernel falls back to the scalar loop where it is unavailable
+        SpringKernel kernel = kernel_.equals("vector") ? SpringKernel.vectorized() : SpringKernel.SCALAR;
+        mss.setSpringKernel(kernel != SpringKernel.SCALAR ? kernel : null);
+    }
+    
+    /**
+     *  Relaxes the system until the residual force norm is below the 
+     *  tolerance or the iteration limit is reached, or until it diverges.
+     *
+     *  @return true if the run converged
+     */
+    public boolean run() {
+        if (mss_ == null) build();
+        if (checkpointFile_ == null && recordFile_ == null) return dr_.run(mss_, h_, maxIterations_);
+        
+        try {
+            TrajectoryRecorder rec = null;
+            if (recordFile_ != null) {
+                rec = new TrajectoryRecorder(recordFile_, mss_.getNumMasses(), recordEvery_, 0.001f);
+            }
+            try {
+                runInChunks(rec);
+            } finally {
+                if (rec != null) rec.close();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return dr_.isConverged();
+    }
+    
+    // relax up to the next checkpoint or recorded frame at a time
+    private void runInChunks(TrajectoryRecorder rec) throws IOException {
+        long it = dr_.getIterations();
+        long limit = it + maxIterations_;
+        if (rec != null) rec.record(mss_, it);
+        
+        while (!dr_.isConverged() && !dr_.isDiverged() && it < limit) {
+            long next = limit;
+            if (checkpointFile_ != null) next = Math.min(next, (it / checkpointEvery_ + 1) * checkpointEvery_);
+            if (rec != null) next = Math.min(next, (it / recordEvery_ + 1) * recordEvery_);
+            
+            dr_.run(mss_, h_, next - it);
+            it = dr_.getIterations();
+            boolean last = dr_.isConverged() || it >= limit;
+            
+            long t0 = (stats_ != null) ? stats_.begin() : 0;
+            if (rec != null && (it % recordEvery_ == 0 || last)) rec.record(mss_, it);
+            // never overwrite the last good checkpoint with a diverged state
+            if (checkpointFile_ != null && (it % checkpointEvery_ == 0 || last) && !dr_.isDiverged()) {
+                writeCheckpoint(checkpointFile_);
+            }
+            if (stats_ != null) stats_.end(Instrumentation.CHECKPOINT, t0);
+        }
+    }
+    
+    /**
+     *  Writes a checkpoint of the system. Time is the pseudo time of the
+     *  relaxation, iterations times step.
+     */
+    public void writeCheckpoint(String file) throws IOException {
+        long steps = getIterations();
+        Checkpoint.write(mss_, steps * (double) h_, steps, file);
+    }
+    
+    /**
+     *  Builds the form from the current parameters and replaces its state
+     *  with a checkpoint, so that run() resumes where the checkpoint was 
+     *  written. The parameters must describe the same grid.
+     *
+     *  @throws java.lang.IllegalArgumentException if the checkpoint is of
+     *          a different topology
+     */
+    public void restore(String file) {
+        build();
+        Checkpoint cp = Checkpoint.read(file);
+        MassSpringSystem restored = cp.getSystem();
+        if (restored.getNumMasses() != mss_.getNumMasses() 
+                || restored.getNumSprings() != mss_.getNumSprings() || !restored.isPrimitive()) {
+            throw new IllegalArgumentException(file + " is not a checkpoint of this form");
+        }
+        mss_ = restored;
+        mss_.setInstrumentation(stats_);
+        setupLoads(mss_);
+        dr_.resume(mss_, cp.getSteps());
+    }
+    
+    // largest distance of a particle from its initial position
+    public float getMaxDisplacement() {
+        float[] pos = mss_.getPositions();
+        float max = 0;
+        for (int i = 0; i < mss_.getNumMasses(); i++) {
+            float dx = pos[i*3] - geometry_[i].x;
+            float dy = pos[i*3 + 1] - geometry_[i].y;
+            float dz = pos[i*3 + 2] - geometry_[i].z;
+            max = Math.max(max, dx*dx + dy*dy + dz*dz);
+        }
+        return (float) Math.sqrt(max);
+    }
+    
+    /**
+     *  Writes the particle positions as comma separated x,y,z lines, one
+     *  line per particle in index order.
+     */
+    public void writePositions(Writer out) throws IOException {
+        BufferedWriter w = new BufferedWriter(out, 1 << 16);
+        float[] pos = mss_.getPositions();
+        for (int i = 0; i < mss_.getNumMasses(); i++) {
+            w.write(Float.toString(pos[i*3]));
+            w.write(',');
+            w.write(Float.toString(pos[i*3 + 1]));
+            w.write(',');
+            w.write(Float.toString(pos[i*3 + 2]));
+            w.write('\n');
+        }
+        w.flush();
+    }
+    
+    /**
+     *  Writes the surface of the current state, format by file extension
+     *  (.stl .ply or .obj), see MeshExporter.
+     */
+    public void writeMesh(String file) throws IOException {
+        new MeshExporter(mss_, faces_).write(file);
+    }
+    
+    // Setters
+    
+    public void setTopologyType(int type)      {  topolType_ = type;  }
+    public void setGridSize(int numW, int numH) {  numW_ = numW;  numH_ = numH;  }
+    public void setPlanSize(float width, float length) {  width_ = width;  length_ = length;  }
+    public void setkSpring(float ks)           {  kSpring_ = ks;  }
+    public void setRestLength(float l)         {  restLength_ = l;  }
+    public void setGravity(float g)            {  gravity_ = g;  }
+    public void setSupports(int[] supports)    {  supports_ = supports;  }
+    public void setSupportLayout(String layout) {  layout_ = layout;  supports_ = null;  }
+    public void setSeed(long seed)             {  seed_ = seed;  }
+    public void setContactRadius(float r)      {  contactRadius_ = r;  }
+    
+    /**
+     *  Spring pass of the force evaluation: "scalar", or "vector" for the
+     *  SIMD kernel where the runtime supports it (see SpringKernel).
+     *
+     *  @throws java.lang.IllegalArgumentException on any other name
+     */
+    public void setSpringKernel(String name) {
+        if (!name.equals("scalar") && !name.equals("vector")) {
+            throw new IllegalArgumentException("unknown spring kernel " + name);
+        }
+        kernel_ = name;
+    }
+    public void setPressure(float p)           {  pressure_ = p;  }
+    public void setWind(float x, float y, float z) {  wind_ = new float[] { x, y, z };  }
+    
+    // adds a point load on particle i, applied when the system is built
+    public void addPointLoad(int i, float fx, float fy, float fz) {
+        int k = loadNodes_.length;
+        loadNodes_ = java.util.Arrays.copyOf(loadNodes_, k + 1);
+        loads_ = java.util.Arrays.copyOf(loads_, 3 * (k + 1));
+        loadNodes_[k] = i;
+        loads_[k*3] = fx;  loads_[k*3 + 1] = fy;  loads_[k*3 + 2] = fz;
+    }
+    // a step of 0 or less picks the stable explicit step for each build
+    public void setTimeStep(float h)           {  h_ = h;  autoStep_ = h <= 0f;  }
+    public void setTolerance(float tolerance)  {  tolerance_ = tolerance;  }
+    public void setMaxIterations(long n)       {  maxIterations_ = n;  }
+    public void setCheckpoint(String file, long every) {  checkpointFile_ = file;  checkpointEvery_ = Math.max(1, every);  }
+    public void setRecording(String file, int every)   {  recordFile_ = file;  recordEvery_ = Math.max(1, every);  }
+    public void setInstrumentation(Instrumentation stats) {  stats_ = stats;  }
+    public void setHistory(MetricsHistory history) {  history_ = history;  }
+    
+    // Getters
+    
+    public Topology getTopology()           {  return topology_;  }
+    public Vec3D[] getGeometry()            {  return geometry_;  }
+    public int[] getFaces()                 {  return faces_;  }
+    public MassSpringSystem getSystem()     {  return mss_;  }
+    public DynamicRelaxation getRelaxation() {  return dr_;  }
+    public Instrumentation getInstrumentation() {  return stats_;  }
+    public MetricsHistory getHistory()      {  return history_;  }
+    
+    public int getTopologyType() {  return topolType_;  }
+    public String getSupportLayout() {  return (supports_ != null) ? "custom" : layout_;  }
+    public int numW()  {  return numW_;  }
+    public int numH()  {  return numH_;  }
+    public float getTimeStep() {  return h_;  }
+    public long getIterations() {  return dr_.getIterations();  }
+    public float getkSpring()  {  return kSpring_;  }
+    public float getRestLength() {  return restLength_;  }
+    public float getGravity()  {  return gravity_;  }
+    public float getContactRadius() {  return contactRadius_;  }
+    
+    // kernel in use by the built system, "scalar" where "vector" fell back
+    public String getSpringKernel() {
+        return (mss_ != null && mss_.getSpringKernel() != null) ? "vector" : "scalar";
+    }
+    
+    public static void main(String[] args) { }
+    
+}
@@ -0,0 +1,37 @@
+/*************************************************************************
+ *  Dependencies: MassSpringSystem.java  Constraints.java
+ *
+ *  Euler forward method: x += h * v, v += h * F, both from the state at 
+ *  the start of the step. First order and only conditionally stable.
+ *************************************************************************/
+
+public class ForwardEuler implements Integrator {
+    
+    public float step(MassSpringSystem mss, final float h) {
+        float[] pos = mss.getPositions();
+        float[] vel = mss.getVelocities();
+        float[] frc = mss.getForces();
+        
+        Constraints con = mss.getConstraints();
+        byte[] mask = con.getMask();
+        
+        mss.computeForces(pos, vel);
+        
+        for (int i = 0, n = mss.getNumMasses(); i < n; i++) {
+            int a = i * 3;
+            pos[a]     += vel[a] * h;
+            pos[a + 1] += vel[a + 1] * h;
+            pos[a + 2] += vel[a + 2] * h;
+            vel[a]     += frc[a] * h;
+            vel[a + 1] += frc[a + 1] * h;
+            vel[a + 2] += frc[a + 2] * h;
+            
+            // enforce supports and prescribed displacements
+            if (mask[i] != 0) con.apply(i, pos, vel);
+        }
+        return h;
+    }
+    
+    public static void main(String[] args) { }
+    
+}
@@ -0,0 +1,193 @@
+/*************************************************************************
+ *  Dependencies: TextTokenizer.java Constraints.java
+ *
+ *  Particle geometry read from a memory-mapped file straight into
+ *  primitive arrays: float coordinates, optional per-node masses and
+ *  optional anchor flags. Two layouts are read, told apart by their first
+ *  bytes:
+ *
+ *      text    M C, then M lines of C values, blank or comma separated,
+ *              '#' starts a comment. C is 3 (x y z), 4 (x y z mass) or
+ *              5 (x y z mass anchor). The anchor is a Constraints mask,
+ *              0 free, 7 pinned, 4 roller (z only).
+ *      binary  "DFGB", int version (1), int M, int C, then float x y z
+ *              for all nodes, float mass for all nodes if C >= 4, and
+ *              one byte anchor per node if C = 5, all little endian
+ *************************************************************************/
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+public class GeometryFile {
+
+    // first bytes of the binary layout
+    public static final String BINARY_MAGIC = "DFGB";
+
+    private int M_;
+    private float[] pos_;       // x y z interleaved (size 3 * M)
+    private float[] masses_;    // per-node masses, or null
+    private byte[] anchors_;    // per-node constraint masks, or null
+
+    /**
+     *  @param M number of nodes
+     *  @param positions x y z interleaved (size 3 * M)
+     *  @param masses per-node masses, or null
+     *  @param anchors per-node constraint masks, or null
+     */
+    public GeometryFile(int M, float[] positions, float[] masses, byte[] anchors) {
+        M_ = M;
+        pos_ = positions;
+        masses_ = masses;
+        anchors_ = anchors;
+    }
+
+    /**
+     *  Reads a text or binary geometry file
+     *
+     *  @throws java.io.UncheckedIOException if the file cannot be read
+     *  @throws java.lang.IllegalArgumentException if the file is malformed
+     */
+    public static GeometryFile read(String str) {
+        ByteBuffer buf;
+        try {
+            buf = TextTokenizer.map(Paths.get(str));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        GeometryFile g = TextTokenizer.startsWith(buf, BINARY_MAGIC) ? readBinary(buf, str) : readText(buf);
+        g.validateAnchors();
+        return g;
+    }
+
+    private static GeometryFile readText(ByteBuffer buf) {
+        TextTokenizer in = new TextTokenizer(buf);
+        int M = in.nextInt();
+        int C = in.nextInt();
+        checkHeader(M, C);
+
+        float[] pos = new float[3 * M];
+        float[] masses = (C >= 4) ? new float[M] : null;
+        byte[] anchors = (C == 5) ? new byte[M] : null;
+
+        for (int i = 0; i < M; i++) {
+            pos[i*3]     = in.nextFloat();
+            pos[i*3 + 1] = in.nextFloat();
+            pos[i*3 + 2] = in.nextFloat();
+            if (C >= 4) masses[i] = in.nextFloat();
+            if (C == 5) anchors[i] = (byte) in.nextInt();
+        }
+        if (in.hasNext()) {
+            throw new IllegalArgumentException("more than " + M + " nodes at line " + in.line());
+        }
+        return new GeometryFile(M, pos, masses, anchors);
+    }
+
+    private static GeometryFile readBinary(ByteBuffer buf, String str) {
+        buf.position(BINARY_MAGIC.length());
+        int version = buf.getInt();
+        if (version != 1) {
+            throw new IllegalArgumentException("unsupported geometry version " + version);
+        }
+        int M = buf.getInt();
+        int C = buf.getInt();
+        checkHeader(M, C);
+
+        long size = 12L * M + ((C >= 4) ? 4L * M : 0) + ((C == 5) ? M : 0);
+        if (buf.remaining() != size) {
+            throw new IllegalArgumentException(str + " does not hold " + M + " nodes");
+        }
+
+        // bulk copies, the float views read the mapped bytes in file order
+        float[] pos = new float[3 * M];
+        buf.asFloatBuffer().get(pos);
+        buf.position(buf.position() + 12 * M);
+
+        float[] masses = null;
+        if (C >= 4) {
+            masses = new float[M];
+            buf.asFloatBuffer().get(masses);
+            buf.position(buf.position() + 4 * M);
+        }
+
+        byte[] anchors = null;
+        if (C == 5) {
+            anchors = new byte[M];
+            buf.get(anchors);
+        }
+        return new GeometryFile(M, pos, masses, anchors);
+    }
+
+    private static void checkHeader(int M, int C) {
+        if (M < 0) throw new IllegalArgumentException("negative node count");
+        if (C < 3 || C > 5) {
+            throw new IllegalArgumentException("expected 3, 4 or 5 columns, found " + C);
+        }
+    }
+
+    // masses and anchor masks checked in one pass each
+    private void validateAnchors() {
+        if (masses_ != null) {
+            for (int i = 0; i < M_; i++) {
+                if (!(masses_[i] > 0f)) {
+                    throw new IllegalArgumentException("node " + i + " has mass " + masses_[i]);
+                }
+            }
+        }
+        if (anchors_ != null) {
+            int bad = 0;
+            for (int i = 0; i < M_; i++) bad |= anchors_[i] & ~Constraints.FIX_ALL;
+            if (bad == 0) return;
+            for (int i = 0; i < M_; i++) {
+                if ((anchors_[i] & ~Constraints.FIX_ALL) != 0) {
+                    throw new IllegalArgumentException("node " + i + " has anchor flags " + anchors_[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     *  Writes the binary layout read by read()
+     */
+    public void writeBinary(String str) throws IOException {
+        int C = (anchors_ != null) ? 5 : (masses_ != null) ? 4 : 3;
+        if (C == 5 && masses_ == null) {
+            throw new IllegalStateException("anchors need masses in the file layout");
+        }
+
+        int size = 20 + 12 * M_ + ((C >= 4) ? 4 * M_ : 0) + ((C == 5) ? M_ : 0);
+        ByteBuffer buf = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < BINARY_MAGIC.length(); i++) buf.put((byte) BINARY_MAGIC.charAt(i));
+        buf.putInt(1).putInt(M_).putInt(C);
+
+        buf.asFloatBuffer().put(pos_, 0, 3 * M_);
+        buf.position(buf.position() + 12 * M_);
+        if (C >= 4) {
+            buf.asFloatBuffer().put(masses_, 0, M_);
+            buf.position(buf.position() + 4 * M_);
+        }
+        if (C == 5) buf.put(anchors_, 0, M_);
+        buf.flip();
+
+        try (FileChannel ch = FileChannel.open(Paths.get(str), StandardOpenOption.CREATE,
+                                                             StandardOpenOption.TRUNCATE_EXISTING,
+                                                             StandardOpenOption.WRITE)) {
+            while (buf.hasRemaining()) ch.write(buf);
+        }
+    }
+
+    // Getters
+
+    public int size()            {  return M_;  }
+    public float[] getPositions() {  return pos_;  }
+    public float[] getMasses()   {  return masses_;  }
+    public byte[] getAnchors()   {  return anchors_;  }
+
+    public static void main(String[] args) { }
+
+}
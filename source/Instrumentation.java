@@ -0,0 +1,182 @@
+/*************************************************************************
+ *  Dependencies: InstrumentationMBean.java PhaseEvent.java (optional)
+ *
+ *  Low overhead timers and counters for the simulation hot paths. Each
+ *  phase accumulates its time and number of calls in lock-free arrays;
+ *  a timed section costs two System.nanoTime() calls and two atomic adds.
+ *  The totals are exposed through a JMX MBean, and on runtimes with JDK
+ *  Flight Recorder every timed section is also committed as a PhaseEvent
+ *  when a recording has that event enabled.
+ *
+ *  Phases:
+ *      FORCES      force accumulation, one per force evaluation
+ *      STEP        one integrator step, including its force evaluations
+ *      PUBLISH     copying a snapshot for the render loop
+ *      SUM_FL      Sigma FL for the display
+ *      CHECKPOINT  writing a checkpoint or trajectory frame
+ *      FRAME       one draw() of the application
+ *************************************************************************/
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+public class Instrumentation implements InstrumentationMBean {
+
+    public static final int FORCES = 0, STEP = 1, PUBLISH = 2, SUM_FL = 3, CHECKPOINT = 4, FRAME = 5;
+    public static final String[] PHASES = { "forces", "step", "publish", "sumFL", "checkpoint", "frame" };
+
+    /**
+     *  Receives every timed section, see PhaseEvent
+     */
+    public interface PhaseSink {
+        void emit(String phase, long nanos, long steps);
+    }
+
+    // Flight Recorder sink, null when its classes are missing (before JDK 11)
+    private static final PhaseSink JFR = flightRecorder();
+
+    private final AtomicLongArray nanos_ = new AtomicLongArray(PHASES.length);
+    private final AtomicLongArray calls_ = new AtomicLongArray(PHASES.length);
+    private final AtomicLong steps_ = new AtomicLong();
+    private volatile long lastFrame_;
+
+    // steps per second and allocation per step, over the last sample window
+    private long windowStart_ = System.nanoTime();
+    private long windowSteps_;
+    private long windowBytes_ = -1;
+    private volatile double stepsPerSecond_;
+    private volatile double bytesPerStep_;
+
+    // PhaseEvent is only ever loaded by name, so this class builds without jdk.jfr
+    private static PhaseSink flightRecorder() {
+        String name = Instrumentation.class.getName();
+        name = name.substring(0, name.length() - "Instrumentation".length()) + "PhaseEvent$Sink";
+        try {
+            return (PhaseSink) Class.forName(name).getDeclaredConstructor().newInstance();
+        } catch (Throwable e) {
+            // not compiled in, or no jdk.jfr at run time
+            return null;
+        }
+    }
+
+    /**
+     *  Registers this instance with the platform MBean server under
+     *  "DynamicFormFinding:type=Simulation,name=<name>". Failures are
+     *  reported and otherwise ignored, instrumentation keeps working.
+     */
+    public Instrumentation register(String name) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName id = new ObjectName("DynamicFormFinding:type=Simulation,name=" + ObjectName.quote(name));
+            if (server.isRegistered(id)) server.unregisterMBean(id);
+            server.registerMBean(this, id);
+        } catch (Exception e) {
+            System.err.println("instrumentation not registered: " + e);
+        }
+        return this;
+    }
+
+    // start of a timed section
+    public long begin() {
+        return System.nanoTime();
+    }
+
+    // end of a timed section of the given phase, started at start
+    public void end(int phase, long start) {
+        long t = System.nanoTime() - start;
+        nanos_.addAndGet(phase, t);
+        calls_.incrementAndGet(phase);
+        if (phase == FRAME) lastFrame_ = t;
+        if (JFR != null) JFR.emit(PHASES[phase], t, steps_.get());
+    }
+
+    /**
+     *  Counts n steps taken on the calling thread. About once a second the
+     *  step rate and, where the JVM supports it, the bytes allocated per
+     *  step by the calling thread are updated.
+     */
+    public void stepped(long n) {
+        long steps = steps_.addAndGet(n);
+        long now = System.nanoTime();
+        if (now - windowStart_ < 1000000000L && windowBytes_ >= 0) return;
+
+        long bytes = allocatedBytes();
+        long ds = steps - windowSteps_;
+        if (ds > 0 && windowBytes_ >= 0) {
+            stepsPerSecond_ = ds * 1e9 / (now - windowStart_);
+            if (bytes >= 0) bytesPerStep_ = (bytes - windowBytes_) / (double) ds;
+        }
+        windowStart_ = now;
+        windowSteps_ = steps;
+        windowBytes_ = Math.max(bytes, 0);
+    }
+
+    // bytes allocated by the current thread, or -1 if not supported
+    private static long allocatedBytes() {
+        ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+        if (mx instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sun = (com.sun.management.ThreadMXBean) mx;
+            if (sun.isThreadAllocatedMemorySupported() && sun.isThreadAllocatedMemoryEnabled()) {
+                return sun.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    // total milliseconds spent in a phase
+    public double getMillis(int phase) {  return nanos_.get(phase) * 1e-6;  }
+    public long getCalls(int phase)    {  return calls_.get(phase);  }
+
+    // one line per phase: name, calls, total and mean time
+    public String summary() {
+        StringBuilder sb = new StringBuilder();
+        for (int p = 0; p < PHASES.length; p++) {
+            long calls = calls_.get(p);
+            if (calls == 0) continue;
+            sb.append(String.format("%-10s %10d calls %10.1f ms %10.4f ms/call%n",
+                      PHASES[p], calls, getMillis(p), getMillis(p) / calls));
+        }
+        return sb.toString();
+    }
+
+    // InstrumentationMBean
+
+    public long getSteps()                   {  return steps_.get();  }
+    public double getStepsPerSecond()        {  return stepsPerSecond_;  }
+    public long getForceEvaluations()        {  return calls_.get(FORCES);  }
+    public double getAllocatedBytesPerStep() {  return bytesPerStep_;  }
+
+    public double getForceMillis()      {  return getMillis(FORCES);  }
+    public double getStepMillis()       {  return getMillis(STEP);  }
+    public double getPublishMillis()    {  return getMillis(PUBLISH);  }
+    public double getSumFLMillis()      {  return getMillis(SUM_FL);  }
+    public double getCheckpointMillis() {  return getMillis(CHECKPOINT);  }
+
+    public long getFrames()             {  return calls_.get(FRAME);  }
+    public double getLastFrameMillis()  {  return lastFrame_ * 1e-6;  }
+    public double getMeanFrameMillis() {
+        long n = calls_.get(FRAME);
+        return (n > 0) ? getMillis(FRAME) / n : 0;
+    }
+
+    public boolean isFlightRecorderAvailable() {  return JFR != null;  }
+
+    public void reset() {
+        for (int p = 0; p < PHASES.length; p++) {
+            nanos_.set(p, 0);
+            calls_.set(p, 0);
+        }
+        steps_.set(0);
+        lastFrame_ = 0;
+        stepsPerSecond_ = 0;
+        bytesPerStep_ = 0;
+    }
+
+    public static void main(String[] args) { }
+
+}
@@ -0,0 +1,30 @@
+/*************************************************************************
+ *  Dependencies: None
+ *
+ *  Management interface of Instrumentation, as seen by JConsole, VisualVM
+ *  or any other JMX client. Times are in milliseconds.
+ *************************************************************************/
+
+public interface InstrumentationMBean {
+
+    long getSteps();
+    double getStepsPerSecond();
+    long getForceEvaluations();
+    double getAllocatedBytesPerStep();
+
+    double getForceMillis();
+    double getStepMillis();
+    double getPublishMillis();
+    double getSumFLMillis();
+    double getCheckpointMillis();
+
+    long getFrames();
+    double getMeanFrameMillis();
+    double getLastFrameMillis();
+
+    boolean isFlightRecorderAvailable();
+
+    // zero all timers and counters
+    void reset();
+
+}
@@ -0,0 +1,27 @@
+/*************************************************************************
+ *  Dependencies: MassSpringSystem.java
+ *
+ *  Time integration scheme for a mass spring system in primitive mode.
+ *  Implementations advance the flat position and velocity arrays in 
+ *  place, keep their scratch buffers between steps and enforce the
+ *  system's Constraints as part of the step.
+ *************************************************************************/
+
+public interface Integrator {
+    
+    /**
+     *  Advances the state of the system by (at most) h.
+     *
+     *  @return the time actually advanced
+     */
+    float step(MassSpringSystem mss, float h);
+    
+    /**
+     *  Returns buf if it holds at least n floats, a new array otherwise.
+     *  Used by implementations to keep scratch buffers across steps.
+     */
+    static float[] ensure(float[] buf, int n) {
+        return (buf != null && buf.length >= n) ? buf : new float[n];
+    }
+    
+}
@@ -1,5 +1,7 @@
 /*************************************************************************
- *  Dependencies: toxiclibscore.jar Spring.java Topology.java  Edge.java
+ *  Dependencies: toxiclibscore.jar Spring.java Topology.java Constraints.java
+ *                GeometryFile.java ContactForces.java ForceFields.java
+ *                SpringKernel.java
  *
  *  Mass Spring System data structure for particle-spring simulation 
  *  applications. 
@@ -24,20 +26,63 @@ public class MassSpringSystem {
     private ArrayList<Spring> springs_;
     private float[] masses_;
     private Vec3D[] forces_;
-    private int[] fixed_;
+    private Constraints constraints_;
     
-    private Vec3D GRAVITY;
+    private ForceFields fields_;  // gravity, drag and loads
     private float restLngh;
     
+    // default viscous drag coefficient, f = -x' * k
+    public static final float VISCOUS = -0.0032f;
+    
+    // structure-of-arrays storage, used instead of state_ and forces_
+    // when the system is constructed in primitive mode
+    private boolean primitive_;
+    private float[] pos_;      // positions, x y z interleaved (size 3 * M)
+    private float[] vel_;      // velocities (size 3 * M)
+    private float[] frc_;      // accumulated forces (size 3 * M)
+    private float[] invMass_;  // inverse masses (size M)
+    
+    // packed spring parameters for primitive mode (size S)
+    private int[] sFrom_, sTo_;
+    private float[] sKs_, sRest_;
+    private float[] sF_, sL_;
+    
+    private Vec3D[] view_;     // Vec3D adapter over the primitive state
+    
+    private SpringKernel kernel_;            // optional spring pass, e.g. multi-core
+    private ContactForces contact_;          // optional self-contact, or null
+    private Instrumentation stats_;          // optional timers, or null
+    
+    private long modCount_;                  // edits of this object, see getModCount()
+    
+    // convergence metrics of the last force evaluation, accumulated by
+    // the force pass itself (see accumulateSprings and accumulateBalance)
+    private double sumFL_;                   // Sigma F * L
+    private float maxStrain_;                // largest |L - L0| / L0
+    private double kinetic_;                 // sum of 1/2 m v^2
+    private double residual2_;               // squared out-of-balance force norm
+    private final double[] reaction_ = new double[3];  // sum of support reactions
+    
     /**
      *  Constructs a mass spring system with M masses 
      */
     public MassSpringSystem(Topology topology) {
+        this(topology, false);
+    }
+    
+    /**
+     *  Constructs a mass spring system with M masses. When primitive is true
+     *  the state is kept in flat float arrays and forces are accumulated
+     *  without allocating any Vec3D objects per step.
+     */
+    public MassSpringSystem(Topology topology, boolean primitive) {
         M_ = topology.V();
         S_ = 0;
         origin_ = new Vec3D();
         topology_ = topology;
         springs_ = new ArrayList<Spring>();
+        primitive_ = primitive;
+        fields_ = new ForceFields(M_);
     }
 	
     /**
@@ -47,39 +92,121 @@ public class MassSpringSystem {
      */
      
     public void initialize(Vec3D[] geometry, int[] fixed) {
+        
+        float[] xyz = new float[3 * M_];
+        for (int i = 0; i < M_; i++) {
+            xyz[i*3]     = geometry[i].x;
+            xyz[i*3 + 1] = geometry[i].y;
+            xyz[i*3 + 2] = geometry[i].z;
+        }
+        initialize(xyz, null, fixed);
+ 
+    }
+    
+    /**
+     *  Initializes the system from x y z interleaved positions (size 3 * M),
+     *  per-node masses (size M, or null for the homogeneous default) and an
+     *  array with indices for anchor points
+     */
+    public void initialize(float[] xyz, float[] masses, int[] fixed) {
       
-        state_ = new Vec3D[2 * M_];
         masses_ = new float[M_]; 
-        forces_ = new Vec3D[M_];
-        fixed_ = (int[]) fixed;
+        if (constraints_ != null) modCount_ += constraints_.getModCount();
+        constraints_ = new Constraints(M_);
+        modCount_++;
         
-        GRAVITY = new Vec3D(0f, 0f, 0.2f);
+        fields_.setGravity(0f, 0f, 0.2f);
         restLngh = 7f;
         
         for (int i = 0; i < M_; i++) {
-            state_[i*2] = origin_.add(geometry[i]);
+            masses_[i] = (masses != null) ? masses[i] : 1.4f; // homogeneous mass distribution
+        }
+        
+        if (primitive_) {
+            pos_ = new float[3 * M_];
+            vel_ = new float[3 * M_];
+            frc_ = new float[3 * M_];
+            invMass_ = new float[M_];
+            view_ = null;
+            
+            for (int i = 0; i < M_; i++) {
+                pos_[i*3]     = origin_.x + xyz[i*3];
+                pos_[i*3 + 1] = origin_.y + xyz[i*3 + 1];
+                pos_[i*3 + 2] = origin_.z + xyz[i*3 + 2];
+                invMass_[i] = 1f / masses_[i];
+            }
+            setFixed(fixed);
+            return;
+        }
+        
+        state_ = new Vec3D[2 * M_];
+        forces_ = new Vec3D[M_];
+        
+        for (int i = 0; i < M_; i++) {
+            state_[i*2] = new Vec3D(origin_.x + xyz[i*3], origin_.y + xyz[i*3 + 1], origin_.z + xyz[i*3 + 2]);
             state_[i*2 + 1] = new Vec3D();
-            masses_[i] = 1.4f; // homogeneous mass distribution
             forces_[i] = new Vec3D();
         }
+        setFixed(fixed);
  
     }
     
     /**
      *  Initializes the system's state vector (size 2 * M), forces vector (size M), 
-     *  masses vector (size M) from an input txt of Vec3D points and an array
-     *  with indices for anchor points
+     *  masses vector (size M) from a geometry file of float points, optional
+     *  masses and anchor flags (see GeometryFile), and an array with indices 
+     *  for further anchor points, which may be null. Anchor flags in the 
+     *  file constrain the flagged axes at the node's position.
+     *
+     *  @throws java.lang.IllegalArgumentException if the file does not hold
+     *          one node per vertex of the topology
      */
-     
-    public void initialize(String str, int[] fixed) { }
+    public void initialize(String str, int[] fixed) {
+        
+        GeometryFile g = GeometryFile.read(str);
+        if (g.size() != M_) {
+            throw new IllegalArgumentException(str + " holds " + g.size() + " nodes, topology has " + M_);
+        }
+        
+        initialize(g.getPositions(), g.getMasses(), (fixed != null) ? fixed : new int[0]);
+        
+        byte[] anchors = g.getAnchors();
+        if (anchors == null) return;
+        for (int i = 0; i < M_; i++) {
+            if (anchors[i] == Constraints.FREE || constraints_.isPinned(i)) continue;
+            Vec3D p = getStatePositionAt(i);
+            constraints_.constrain(i, anchors[i] | constraints_.mask(i), p.x, p.y, p.z);
+        }
+    }
      
     // traverse the topology and add springs for each edge
     public void setupSprings(float ks, float kd) {
     	
         springs_ = new ArrayList<Spring>();
+        S_ = 0;
+        modCount_++;
+        
+        if (primitive_) {
+            int n = topology_.E();
+            sFrom_ = new int[n];
+            sTo_   = new int[n];
+            sKs_   = new float[n];
+            sRest_ = new float[n];
+            sF_    = new float[n];
+            sL_    = new float[n];
+            
+            for (int e = 0; e < n; e++) {
+                sFrom_[S_] = topology_.from(e);
+                sTo_[S_]   = topology_.to(e);
+                sKs_[S_]   = ks;
+                sRest_[S_] = restLngh;
+                S_++;
+            }
+            return;
+        }
         
-        for (Edge<Integer> e : topology_.getEdges()) {
-            Spring spr = new Spring(e.from, e.to);
+        for (int e = 0; e < topology_.E(); e++) {
+            Spring spr = new Spring(topology_.from(e), topology_.to(e));
             spr.setSpringConstant(ks);
             spr.setDampingConstant(kd);
             spr.setRestLength(restLngh);
@@ -91,28 +218,25 @@ public class MassSpringSystem {
     
     /**
      *  The method for computing all the forces acting upon a particle.
-     *  Simulated forces are a constant Gravity, a Viscous Drag force
-     *  with independent damping coefficient, a Wind vector, and
-     *  the all the Springs forces based on a particles' links.
+     *  Simulated forces are the external fields (a constant Gravity, a
+     *  Viscous Drag force with independent damping coefficient, and the
+     *  optional pressure, wind and point loads, see ForceFields), all
+     *  the Springs forces based on a particles' links, and optionally
+     *  contact forces between particles.
      *
      *  @param the system's state vector
      */
     private void computeForces() {
-      
-        float VISCOUS = -0.0032f;
         
-        // accumulate forces from gravity and viscous drag
-        for (int i = 0; i < M_; i++) {  
-            forces_[i] = new Vec3D();
-                      
-            // add gravity force
-            forces_[i].addSelf(GRAVITY);
-            
-            // add viscous drag as f = -x' * k
-            forces_[i].addSelf(state_[i*2 + 1].scale(VISCOUS));
-        }
+        long t0 = (stats_ != null) ? stats_.begin() : 0;
+        clearMetrics();
+      
+        // accumulate forces from gravity, viscous drag and loads
+        fields_.apply(state_, forces_, masses_);
         
         // accumulate forces from springs
+        double sumFL = 0;
+        float maxStrain = 0;
         for (Spring s : springs_) {
           
             int from = s.from();
@@ -120,35 +244,220 @@ public class MassSpringSystem {
              
             Vec3D dx = state_[to*2].sub(state_[from*2]);
             
-            s.setLength(dx.magnitude() + 1e-6f ); // for accumulating Sigma FL
-            
             float dist = dx.magnitude() + 1e-6f;
             
             float distStrength = (dist - s.restLength()) / (dist * (1f/masses_[from] + 1f/masses_[to])) * s.kSpring();
             
+            s.setLength(dist);
             s.setForce(distStrength);
             
-            // force acting on mass at index <>from<> is springF
-            // and by Newtons law, force acting on mass at index <>to<> is -springF
-            
-            if (Arrays.binarySearch(fixed_, from) < 0) {
-                forces_[from].addSelf(dx.scale(distStrength * 1.0f / masses_[from]));
+            sumFL += distStrength * dist;
+            if (s.restLength() > 0f) {
+                maxStrain = Math.max(maxStrain, Math.abs(dist - s.restLength()) / s.restLength());
             }
             
-            if (Arrays.binarySearch(fixed_, to) < 0) {
-                forces_[to].addSelf(dx.scale(-distStrength * 1.0f / masses_[to]));
-            }
+            // force acting on mass at index <>from<> is springF
+            // and by Newtons law, force acting on mass at index <>to<> is -springF.
+            // Forces on constrained particles are kept (they are the support
+            // reactions); the integrator enforces the constraints.
+            
+            forces_[from].addSelf(dx.scale(distStrength * 1.0f / masses_[from]));
+            forces_[to].addSelf(dx.scale(-distStrength * 1.0f / masses_[to]));
             
         }
+        addSpringMetrics(sumFL, maxStrain);
+        
+        // accumulate contact forces between particles that came too close
+        if (contact_ != null) contact_.accumulate(state_, forces_);
         
-        // reverse the force acting on anchor points (again based on Newton..)
-        for (int i = 0; i < fixed_.length; i++) {
-            Vec3D ftoken = forces_[fixed_[i]];
-            forces_[fixed_[i]].subSelf(ftoken);
+        // kinetic energy, residual and reactions of the accumulated forces
+        byte[] mask = constraints_.getMask();
+        final float c = fields_.getDrag();
+        double ke = 0, res2 = 0, rx = 0, ry = 0, rz = 0;
+        for (int i = 0; i < M_; i++) {
+            Vec3D v = state_[i*2 + 1];
+            float mi = masses_[i];
+            ke += 0.5 * mi * (v.x*v.x + v.y*v.y + v.z*v.z);
+            
+            float fx = mi * (forces_[i].x - c * v.x);
+            float fy = mi * (forces_[i].y - c * v.y);
+            float fz = mi * (forces_[i].z - c * v.z);
+            int m = mask[i];
+            if ((m & Constraints.FIX_X) != 0) rx -= fx; else res2 += fx * fx;
+            if ((m & Constraints.FIX_Y) != 0) ry -= fy; else res2 += fy * fy;
+            if ((m & Constraints.FIX_Z) != 0) rz -= fz; else res2 += fz * fz;
         }
+        addBalanceMetrics(ke, res2, rx, ry, rz);
+        
+        if (stats_ != null) stats_.end(Instrumentation.FORCES, t0);
        
     }
     
+    /**
+     *  Primitive counterpart of computeForces(). Reads positions and 
+     *  velocities from the given arrays and accumulates into frc_ using
+     *  only scalar arithmetic, so a step allocates nothing. The spring 
+     *  pass also totals Sigma FL and the largest strain, and a closing 
+     *  pass over the particles the kinetic energy, the residual and the
+     *  support reactions, which replaces the separate traversals the 
+     *  getters used to make.
+     */
+    public void computeForces(float[] pos, float[] vel) {
+        
+        long t0 = (stats_ != null) ? stats_.begin() : 0;
+        clearMetrics();
+        
+        final float[] frc = frc_;
+        
+        // accumulate forces from gravity, viscous drag and loads
+        fields_.apply(pos, vel, frc, invMass_);
+        
+        // accumulate forces from springs
+        if (kernel_ != null) {
+            kernel_.accumulate(this, pos, frc);
+        } else {
+            accumulateSprings(null, 0, S_, pos, frc);
+        }
+        
+        // accumulate contact forces between particles that came too close
+        if (contact_ != null) contact_.accumulate(pos, vel, frc);
+        
+        accumulateBalance(0, M_, vel, frc);
+        
+        if (stats_ != null) stats_.end(Instrumentation.FORCES, t0);
+        
+    }
+    
+    /**
+     *  Accumulates the forces of springs lo .. hi - 1 into frc. When order
+     *  is given the range indexes into it instead of the spring arrays, 
+     *  which lets callers process a subset such as one edge color.
+     */
+    public void accumulateSprings(int[] order, int lo, int hi, float[] pos, float[] frc) {
+        accumulateSprings(order, lo, hi, pos, frc, 0);
+    }
+    
+    /**
+     *  As above, but frc holds only the particles from base onwards, so a 
+     *  spring between i and j writes to (i - base) and (j - base). Used for
+     *  private per-thread force buffers covering a particle window. The
+     *  range's Sigma FL and largest strain are added to the metrics.
+     */
+    public void accumulateSprings(int[] order, int lo, int hi, float[] pos, float[] frc, int base) {
+        accumulateSprings(order, lo, hi, pos, frc, base, Integer.MAX_VALUE, 0);
+    }
+    
+    /**
+     *  As above, for a buffer covering two particle windows: particles from
+     *  split onwards are written a further shift entries down, so the gap 
+     *  between the windows takes no space.
+     */
+    public void accumulateSprings(int[] order, int lo, int hi, float[] pos, float[] frc, 
+                                  int base, int split, int shift) {
+        
+        double sumFL = 0;
+        float maxStrain = 0;
+        
+        for (int k = lo; k < hi; k++) {
+            
+            int s = (order == null) ? k : order[k];
+            int from = sFrom_[s];
+            int to   = sTo_[s];
+            int a = from * 3, b = to * 3;
+            
+            float dx = pos[b]     - pos[a];
+            float dy = pos[b + 1] - pos[a + 1];
+            float dz = pos[b + 2] - pos[a + 2];
+            
+            float dist = (float) Math.sqrt(dx*dx + dy*dy + dz*dz) + 1e-6f;
+            
+            float ia = invMass_[from], ib = invMass_[to];
+            float rest = sRest_[s];
+            float distStrength = (dist - rest) / (dist * (ia + ib)) * sKs_[s];
+            
+            sL_[s] = dist; // for accumulating Sigma FL
+            sF_[s] = distStrength;
+            
+            sumFL += distStrength * dist;
+            if (rest > 0f) maxStrain = Math.max(maxStrain, Math.abs(dist - rest) / rest);
+            
+            a -= (from < split ? base : base + shift) * 3;
+            b -= (to < split ? base : base + shift) * 3;
+            
+            float ka = distStrength * ia;
+            frc[a]     += dx * ka;
+            frc[a + 1] += dy * ka;
+            frc[a + 2] += dz * ka;
+            
+            float kb = -distStrength * ib;
+            frc[b]     += dx * kb;
+            frc[b + 1] += dy * kb;
+            frc[b + 2] += dz * kb;
+        }
+        
+        addSpringMetrics(sumFL, maxStrain);
+        
+    }
+    
+    /**
+     *  Adds the kinetic energy, the out-of-balance force and the support
+     *  reactions of particles lo .. hi - 1 to the metrics. frc must hold
+     *  every contribution to their forces. The out-of-balance force is the
+     *  spring and external load without the viscous drag; on a constrained
+     *  axis it is taken up by the support, whose reaction is its negative.
+     */
+    public void accumulateBalance(int lo, int hi, float[] vel, float[] frc) {
+        
+        byte[] mask = constraints_.getMask();
+        final float c = fields_.getDrag();
+        double ke = 0, res2 = 0, rx = 0, ry = 0, rz = 0;
+        
+        for (int i = lo; i < hi; i++) {
+            int a = i * 3;
+            float mi = masses_[i];
+            float vx = vel[a], vy = vel[a + 1], vz = vel[a + 2];
+            ke += 0.5 * mi * (vx*vx + vy*vy + vz*vz);
+            
+            float fx = mi * (frc[a]     - c * vx);
+            float fy = mi * (frc[a + 1] - c * vy);
+            float fz = mi * (frc[a + 2] - c * vz);
+            int m = mask[i];
+            if ((m & Constraints.FIX_X) != 0) rx -= fx; else res2 += fx * fx;
+            if ((m & Constraints.FIX_Y) != 0) ry -= fy; else res2 += fy * fy;
+            if ((m & Constraints.FIX_Z) != 0) rz -= fz; else res2 += fz * fz;
+        }
+        
+        addBalanceMetrics(ke, res2, rx, ry, rz);
+        
+    }
+    
+    // start the metrics of a new force evaluation
+    public synchronized void clearMetrics() {
+        sumFL_ = 0;
+        maxStrain_ = 0;
+        kinetic_ = 0;
+        residual2_ = 0;
+        Arrays.fill(reaction_, 0);
+    }
+    
+    /**
+     *  Adds Sigma FL and the largest strain of a range of springs to the
+     *  metrics. Partial sums of concurrent passes and kernels are merged 
+     *  under the lock, once per range.
+     */
+    public synchronized void addSpringMetrics(double sumFL, float maxStrain) {
+        sumFL_ += sumFL;
+        maxStrain_ = Math.max(maxStrain_, maxStrain);
+    }
+    
+    private synchronized void addBalanceMetrics(double ke, double res2, double rx, double ry, double rz) {
+        kinetic_ += ke;
+        residual2_ += res2;
+        reaction_[0] += rx;
+        reaction_[1] += ry;
+        reaction_[2] += rz;
+    }
+    
     /**
      *  This computes the derivative of a state  at any time.
      *  x -> x' = u (velocity), x' -> x" = a (acceleration)
@@ -157,6 +466,11 @@ public class MassSpringSystem {
      *  and the acceleration at odd indices. Thus a second
      *  order ODE becomes first order.
      *
+     *  Legacy Vec3D mode only, and frozen: it also moves the stored 
+     *  positions by one velocity and overwrites the stored velocities, 
+     *  which OdeSolver.takeStep() relies on. The GUI, the engine and the
+     *  integrators all run in primitive mode; use evalF(float[]...) there.
+     *
      *  @return the new state
      */
      
@@ -179,28 +493,171 @@ public class MassSpringSystem {
         
     }
     
-    public float getSumFL() {
-        float sum = 0;
-        for (Spring s : springs_) {
-            sum += s.F() * s.L();
-        }
-        return sum;
+    /**
+     *  Primitive counterpart of evalF(). Writes the derivative of the given
+     *  state, x' = v and v' = F, into dpos and dvel. The system's own 
+     *  positions and velocities are left untouched, which lets multi-stage
+     *  integrators evaluate trial states.
+     */
+    public void evalF(float[] pos, float[] vel, float[] dpos, float[] dvel) {
+        computeForces(pos, vel);
+        System.arraycopy(vel, 0, dpos, 0, 3 * M_);
+        System.arraycopy(frc_, 0, dvel, 0, 3 * M_);
+    }
+    
+    // Sigma F * L of the last force evaluation
+    public float getSumFL() {  return (float) sumFL_;  }
+    
+    /**
+     *  Norm of the out-of-balance force over the unconstrained coordinates,
+     *  i.e. spring and external loads without the viscous drag, from the
+     *  last force evaluation. Zero at static equilibrium.
+     */
+    public float getResidualNorm() {  return (float) Math.sqrt(residual2_);  }
+    
+    // total kinetic energy, sum of 1/2 m v^2, of the last force evaluation
+    public float getKineticEnergy() {  return (float) kinetic_;  }
+    
+    // largest |L - L0| / L0 over all springs of the last force evaluation
+    public float getMaxStrain() {  return maxStrain_;  }
+    
+    /**
+     *  Sum of the support reactions (x, y, z) of the last force evaluation.
+     *  At equilibrium it balances the total external load.
+     */
+    public float[] getSupportReaction() {
+        return new float[] { (float) reaction_[0], (float) reaction_[1], (float) reaction_[2] };
+    }
+    
+    // magnitude of the summed support reaction
+    public float getSupportReactionNorm() {
+        double x = reaction_[0], y = reaction_[1], z = reaction_[2];
+        return (float) Math.sqrt(x*x + y*y + z*z);
     }
     
     // Setters
     
     public void setOrigin(Vec3D origin) {  origin_ = origin;  }
-    public void setState(Vec3D[] state) {  state_ = state;  }
-    public void setStatePositionAt(int idx, Vec3D v) {  state_[idx*2] = v;  }
-    public void setFixed(int[] fixed) {  fixed_ = fixed;  }
+    public void setState(Vec3D[] state) {
+        if (!primitive_) {
+            if (state != state_) modCount_++;
+            state_ = state;
+            return;
+        }
+        // copy the adapter (or any interleaved state) back into the arrays;
+        // handing back the unchanged adapter after a step is not an edit
+        boolean changed = false;
+        for (int i = 0; i < M_; i++) {
+            Vec3D p = state[i*2], v = state[i*2 + 1];
+            int a = i * 3;
+            changed |= pos_[a] != p.x || pos_[a + 1] != p.y || pos_[a + 2] != p.z
+                     || vel_[a] != v.x || vel_[a + 1] != v.y || vel_[a + 2] != v.z;
+            pos_[a] = p.x;  pos_[a + 1] = p.y;  pos_[a + 2] = p.z;
+            vel_[a] = v.x;  vel_[a + 1] = v.y;  vel_[a + 2] = v.z;
+        }
+        if (changed) modCount_++;
+    }
+    /**
+     *  Overwrites positions and velocities from x y z triples (size 3 * M),
+     *  either mode
+     */
+    public void setState(float[] pos, float[] vel) {
+        modCount_++;
+        if (primitive_) {
+            System.arraycopy(pos, 0, pos_, 0, 3 * M_);
+            System.arraycopy(vel, 0, vel_, 0, 3 * M_);
+            return;
+        }
+        for (int i = 0; i < M_; i++) {
+            state_[i*2]     = new Vec3D(pos[i*3], pos[i*3 + 1], pos[i*3 + 2]);
+            state_[i*2 + 1] = new Vec3D(vel[i*3], vel[i*3 + 1], vel[i*3 + 2]);
+        }
+    }
+    
+    // per-spring constants and rest lengths (size S), either mode
+    public void setSpringParameters(float[] ks, float[] rest) {
+        modCount_++;
+        if (primitive_) {
+            System.arraycopy(ks, 0, sKs_, 0, S_);
+            System.arraycopy(rest, 0, sRest_, 0, S_);
+            return;
+        }
+        for (int s = 0; s < S_; s++) {
+            springs_.get(s).setSpringConstant(ks[s]);
+            springs_.get(s).setRestLength(rest[s]);
+        }
+    }
+    
+    public void setStatePositionAt(int idx, Vec3D v) {
+        modCount_++;
+        if (!primitive_) {
+            state_[idx*2] = v;
+            return;
+        }
+        pos_[idx*3] = v.x;  pos_[idx*3 + 1] = v.y;  pos_[idx*3 + 2] = v.z;
+    }
+    
+    /**
+     *  Replaces all constraints by pins at the current positions of the
+     *  given particle indices. The indices need not be sorted.
+     */
+    public void setFixed(int[] fixed) {
+        constraints_.clear();
+        for (int i = 0; i < fixed.length; i++) {
+            Vec3D p = getStatePositionAt(fixed[i]);
+            constraints_.pin(fixed[i], p.x, p.y, p.z);
+        }
+    }
+    
+    /**
+     *  Runs the spring pass of computeForces() on several cores, or serially
+     *  again when null. Primitive mode.
+     */
+    public void setParallelForces(ParallelSpringForces parallel) {  kernel_ = parallel;  }
+    
+    /**
+     *  Runs the spring pass of computeForces() with the given kernel, e.g.
+     *  SpringKernel.vectorized(), or with the plain loop when null.
+     *  Replaces any parallel pass. Primitive mode.
+     */
+    public void setSpringKernel(SpringKernel kernel) {  kernel_ = kernel;  }
+    
+    /**
+     *  Adds a contact stage to the force pass, or removes it when null.
+     *  Not used by PartitionedStepper, which accumulates springs itself.
+     */
+    public void setContactForces(ContactForces contact) {
+        modCount_ += ((contact_ != null) ? contact_.getModCount() : 0) + 1;
+        contact_ = contact;
+    }
+    
+    // times every force evaluation, or stops timing when null
+    public void setInstrumentation(Instrumentation stats) {  stats_ = stats;  }
     
-    public void setGravity(float z) {  GRAVITY = new Vec3D(0, 0, z);  }
+    public void setGravity(float z) {  fields_.setGravity(0, 0, z);  }
+    public void setForceFields(ForceFields fields) {
+        if (fields.getNumMasses() != M_) {
+            throw new IllegalArgumentException("force fields of " + fields.getNumMasses() + " particles, system has " + M_);
+        }
+        modCount_ += fields_.getModCount() + 1;
+        fields_ = fields;
+    }
     public void setRestLenght(float l) {
+        modCount_++;
+        if (primitive_) {
+            Arrays.fill(sRest_, 0, S_, l);
+            return;
+        }
         for (Spring s : springs_) {
             s.setRestLength(l);
         }
     }
     public void setkSpring(float ks) {
+        modCount_++;
+        if (primitive_) {
+            Arrays.fill(sKs_, 0, S_, ks);
+            return;
+        }
         for (Spring s : springs_) {
             s.setSpringConstant(ks);
         }
@@ -208,8 +665,105 @@ public class MassSpringSystem {
     
     // Getters
     
-    public Vec3D getStatePositionAt(int idx) {  return state_[idx*2];  }
-    public Vec3D[] getState() {  return state_;  }
+    public Vec3D getStatePositionAt(int idx) {
+        if (!primitive_) return state_[idx*2];
+        return new Vec3D(pos_[idx*3], pos_[idx*3 + 1], pos_[idx*3 + 2]);
+    }
+    
+    /**
+     *  Returns the interleaved state (position at even, velocity at odd
+     *  indices). In primitive mode this is an adapter refreshed from the
+     *  flat arrays; its Vec3D objects are reused between calls.
+     */
+    public Vec3D[] getState() {
+        if (!primitive_) return state_;
+        
+        if (view_ == null) {
+            view_ = new Vec3D[2 * M_];
+            for (int i = 0; i < 2 * M_; i++) view_[i] = new Vec3D();
+        }
+        for (int i = 0; i < M_; i++) {
+            view_[i*2].set(pos_[i*3], pos_[i*3 + 1], pos_[i*3 + 2]);
+            view_[i*2 + 1].set(vel_[i*3], vel_[i*3 + 1], vel_[i*3 + 2]);
+        }
+        return view_;
+    }
+    
+    // effective gravity, zero while the field is disabled
+    public Vec3D getGravity() {
+        return new Vec3D(fields_.gravityX(), fields_.gravityY(), fields_.gravityZ());
+    }
+    public ForceFields getForceFields() {  return fields_;  }
+    
+    /**
+     *  Number of edits that change the forces at a given state: new state,
+     *  spring parameters, fields, constraints or contact. Integrators that
+     *  keep a force from their last step compare it to decide whether that
+     *  force still holds. Writes straight into the arrays of getPositions()
+     *  and getVelocities() are not counted; reset() the integrator after
+     *  those.
+     */
+    public long getModCount() {
+        long contact = (contact_ != null) ? contact_.getModCount() : 0;
+        return modCount_ + constraints_.getModCount() + fields_.getModCount() + contact;
+    }
+    public Constraints getConstraints() {  return constraints_;  }
+    public Topology getTopology()       {  return topology_;  }
+    public ContactForces getContactForces() {  return contact_;  }
+    public SpringKernel getSpringKernel()   {  return kernel_;  }
+    
+    // copy positions into dst as x y z triples (size 3 * M), either mode
+    public void copyPositions(float[] dst) {
+        if (primitive_) {
+            System.arraycopy(pos_, 0, dst, 0, 3 * M_);
+            return;
+        }
+        for (int i = 0; i < M_; i++) {
+            Vec3D p = state_[i*2];
+            dst[i*3] = p.x;  dst[i*3 + 1] = p.y;  dst[i*3 + 2] = p.z;
+        }
+    }
+    
+    // copy velocities into dst as x y z triples (size 3 * M), either mode
+    public void copyVelocities(float[] dst) {
+        if (primitive_) {
+            System.arraycopy(vel_, 0, dst, 0, 3 * M_);
+            return;
+        }
+        for (int i = 0; i < M_; i++) {
+            Vec3D v = state_[i*2 + 1];
+            dst[i*3] = v.x;  dst[i*3 + 1] = v.y;  dst[i*3 + 2] = v.z;
+        }
+    }
+    
+    // copy spring constants and rest lengths into ks and rest (size S), either mode
+    public void copySpringParameters(float[] ks, float[] rest) {
+        if (primitive_) {
+            System.arraycopy(sKs_, 0, ks, 0, S_);
+            System.arraycopy(sRest_, 0, rest, 0, S_);
+            return;
+        }
+        for (int s = 0; s < S_; s++) {
+            ks[s] = springs_.get(s).kSpring();
+            rest[s] = springs_.get(s).restLength();
+        }
+    }
+    
+    public boolean isPrimitive()   {  return primitive_;  }
+    public float[] getPositions()  {  return pos_;  }
+    public float[] getVelocities() {  return vel_;  }
+    public float[] getForces()     {  return frc_;  }
+    public float[] getInverseMasses() {  return invMass_;  }
+    
+    // packed spring parameters (primitive mode)
+    public int[] getSpringFrom()          {  return sFrom_;  }
+    public int[] getSpringTo()            {  return sTo_;  }
+    public float[] getSpringConstants()   {  return sKs_;  }
+    public float[] getRestLengths()       {  return sRest_;  }
+    public float[] getSpringForces()      {  return sF_;  }  // from the last force pass
+    public float[] getSpringLengths()     {  return sL_;  }
+    
+    public float[] getMasses() {  return masses_;  }
     
     public int getNumMasses()  {  return M_;  }
     public int getNumSprings() {  return S_;  }
@@ -0,0 +1,222 @@
+/*************************************************************************
+ *  Dependencies: MassSpringSystem.java FormBuilder.java ChannelWriter.java
+ *
+ *  Streaming mesh export straight from the simulation state. Positions
+ *  are x y z interleaved floats and faces are three particle indices per
+ *  triangle, as returned by FormBuilder.buildFaces(). Nothing is built in
+ *  between: records are packed into the buffer of a ChannelWriter, so 
+ *  memory use does not grow with the mesh and no Processing or toxi mesh
+ *  object is needed.
+ *
+ *  Formats:
+ *      STL  binary, facet normals computed on the fly
+ *      PLY  binary little endian, optional per-vertex force and stress
+ *      OBJ  text, vertices and 1-based faces
+ *
+ *  The per-vertex attributes of a primitive system are the out of balance
+ *  force magnitude (the support reaction at pinned particles) and the
+ *  largest axial force of the springs meeting at the particle, both from
+ *  the last force evaluation.
+ *************************************************************************/
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+public class MeshExporter {
+
+    private final float[] pos_;      // x y z interleaved (size 3 * M)
+    private final int[] faces_;      // 3 particle indices per triangle
+    private float[] force_;          // per-vertex attributes, or null
+    private float[] stress_;
+
+    public MeshExporter(float[] positions, int[] faces) {
+        pos_ = positions;
+        faces_ = faces;
+    }
+
+    /**
+     *  Exports the current positions of the system. For a primitive system
+     *  the PLY output also carries force and stress per vertex.
+     */
+    public MeshExporter(MassSpringSystem mss, int[] faces) {
+        pos_ = new float[3 * mss.getNumMasses()];
+        faces_ = faces;
+        mss.copyPositions(pos_);
+
+        if (mss.isPrimitive()) {
+            force_ = nodeForces(mss);
+            stress_ = nodeStresses(mss);
+        }
+    }
+
+    /**
+     *  Magnitude of the out of balance force at each particle, i.e. spring
+     *  and external loads without the viscous drag. Primitive mode.
+     */
+    public static float[] nodeForces(MassSpringSystem mss) {
+        int M = mss.getNumMasses();
+        float[] frc = mss.getForces(), vel = mss.getVelocities();
+        float[] masses = mss.getMasses();
+        float drag = mss.getForceFields().getDrag();
+        float[] out = new float[M];
+
+        for (int i = 0; i < M; i++) {
+            float sum = 0;
+            for (int k = i * 3; k < i * 3 + 3; k++) {
+                float f = masses[i] * (frc[k] - drag * vel[k]);
+                sum += f * f;
+            }
+            out[i] = (float) Math.sqrt(sum);
+        }
+        return out;
+    }
+
+    /**
+     *  Largest axial spring force F * L meeting at each particle. Primitive
+     *  mode.
+     */
+    public static float[] nodeStresses(MassSpringSystem mss) {
+        int[] from = mss.getSpringFrom(), to = mss.getSpringTo();
+        float[] F = mss.getSpringForces(), L = mss.getSpringLengths();
+        float[] out = new float[mss.getNumMasses()];
+
+        for (int s = 0; s < mss.getNumSprings(); s++) {
+            float n = Math.abs(F[s] * L[s]);
+            if (n > out[from[s]]) out[from[s]] = n;
+            if (n > out[to[s]])   out[to[s]] = n;
+        }
+        return out;
+    }
+
+    /**
+     *  Writes to the format given by the file extension, .stl .ply or .obj
+     *
+     *  @throws IllegalArgumentException on any other extension
+     */
+    public void write(String file) throws IOException {
+        String name = file.toLowerCase();
+        Path path = Paths.get(file);
+
+        if      (name.endsWith(".stl")) writeStl(path);
+        else if (name.endsWith(".ply")) writePly(path);
+        else if (name.endsWith(".obj")) writeObj(path);
+        else throw new IllegalArgumentException("unknown mesh format " + file);
+    }
+
+    /**
+     *  Binary STL: 80 byte header, triangle count, then a normal, three
+     *  vertices and a zero attribute word per triangle.
+     */
+    public void writeStl(Path path) throws IOException {
+        try (ChannelWriter out = new ChannelWriter(path)) {
+            String title = "DynamicFormFindingAPI";
+            out.putAscii(title);
+            out.put(new byte[80 - title.length()], 0, 80 - title.length());
+            out.putInt(faces_.length / 3);
+
+            for (int f = 0; f < faces_.length; f += 3) {
+                ByteBuffer buf = out.reserve(50);
+                int a = 3 * faces_[f], b = 3 * faces_[f + 1], c = 3 * faces_[f + 2];
+
+                float ux = pos_[b] - pos_[a], uy = pos_[b + 1] - pos_[a + 1], uz = pos_[b + 2] - pos_[a + 2];
+                float vx = pos_[c] - pos_[a], vy = pos_[c + 1] - pos_[a + 1], vz = pos_[c + 2] - pos_[a + 2];
+                float nx = uy * vz - uz * vy;
+                float ny = uz * vx - ux * vz;
+                float nz = ux * vy - uy * vx;
+                float len = (float) Math.sqrt(nx*nx + ny*ny + nz*nz);
+                if (len > 0) {  nx /= len;  ny /= len;  nz /= len;  }
+
+                buf.putFloat(nx).putFloat(ny).putFloat(nz);
+                putVertex(buf, a);
+                putVertex(buf, b);
+                putVertex(buf, c);
+                buf.putShort((short) 0);
+            }
+        }
+    }
+
+    /**
+     *  Binary little endian PLY with float x y z, plus force and stress
+     *  when known, and a uchar/int face index list.
+     */
+    public void writePly(Path path) throws IOException {
+        int M = pos_.length / 3;
+        boolean attributes = force_ != null && stress_ != null;
+
+        StringBuilder header = new StringBuilder();
+        header.append("ply\n")
+              .append("format binary_little_endian 1.0\n")
+              .append("comment DynamicFormFindingAPI\n")
+              .append("element vertex ").append(M).append('\n')
+              .append("property float x\n")
+              .append("property float y\n")
+              .append("property float z\n");
+        if (attributes) {
+            header.append("property float force\n")
+                  .append("property float stress\n");
+        }
+        header.append("element face ").append(faces_.length / 3).append('\n')
+              .append("property list uchar int vertex_indices\n")
+              .append("end_header\n");
+
+        try (ChannelWriter out = new ChannelWriter(path)) {
+            out.putAscii(header);
+
+            for (int i = 0; i < M; i++) {
+                ByteBuffer buf = out.reserve(20);
+                putVertex(buf, 3 * i);
+                if (attributes) buf.putFloat(force_[i]).putFloat(stress_[i]);
+            }
+            for (int f = 0; f < faces_.length; f += 3) {
+                ByteBuffer buf = out.reserve(13);
+                buf.put((byte) 3);
+                buf.putInt(faces_[f]).putInt(faces_[f + 1]).putInt(faces_[f + 2]);
+            }
+        }
+    }
+
+    /**
+     *  Wavefront OBJ, one "v x y z" line per particle followed by one
+     *  "f a b c" line per triangle.
+     */
+    public void writeObj(Path path) throws IOException {
+        int M = pos_.length / 3;
+        StringBuilder line = new StringBuilder(64);
+
+        try (ChannelWriter out = new ChannelWriter(path)) {
+            for (int i = 0; i < M; i++) {
+                line.setLength(0);
+                line.append("v ").append(pos_[i*3]).append(' ')
+                    .append(pos_[i*3 + 1]).append(' ')
+                    .append(pos_[i*3 + 2]).append('\n');
+                out.putAscii(line);
+            }
+            for (int f = 0; f < faces_.length; f += 3) {
+                line.setLength(0);
+                line.append("f ").append(faces_[f] + 1).append(' ')
+                    .append(faces_[f + 1] + 1).append(' ')
+                    .append(faces_[f + 2] + 1).append('\n');
+                out.putAscii(line);
+            }
+        }
+    }
+
+    // Setters
+
+    /**
+     *  Per-vertex attributes for PLY output, size M each, or null to omit
+     */
+    public void setVertexAttributes(float[] force, float[] stress) {
+        force_ = force;
+        stress_ = stress;
+    }
+
+    private void putVertex(ByteBuffer buf, int a) {
+        buf.putFloat(pos_[a]).putFloat(pos_[a + 1]).putFloat(pos_[a + 2]);
+    }
+
+    public static void main(String[] args) { }
+
+}
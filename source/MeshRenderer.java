@@ -0,0 +1,168 @@
+/*************************************************************************
+ *  Dependencies: core.jar Topology.java
+ *
+ *  Retained mode drawing of a particle spring system. The edge lines, the
+ *  surface triangles and the particle markers are built once per topology
+ *  as PShapes, which the OpenGL renderer keeps in vertex buffers. Every
+ *  frame only the vertex positions are written with setVertex(), so one
+ *  shape() call per buffer replaces thousands of line() and sphere() calls.
+ *
+ *  Particle markers are small octahedra while the system is small; above
+ *  a particle count threshold they are replaced by single points, which
+ *  keeps the vertex count at one per particle.
+ *************************************************************************/
+
+import processing.core.PApplet;
+import processing.core.PConstants;
+import processing.core.PShape;
+
+public class MeshRenderer {
+
+    // octahedron glyph, 8 triangles over 6 unit directions
+    private static final float[][] GLYPH_DIRS = {
+        { 1, 0, 0 }, { -1, 0, 0 }, { 0, 1, 0 }, { 0, -1, 0 }, { 0, 0, 1 }, { 0, 0, -1 }
+    };
+    private static final int[] GLYPH_FACES = {
+        0, 2, 4,  2, 1, 4,  1, 3, 4,  3, 0, 4,
+        2, 0, 5,  1, 2, 5,  3, 1, 5,  0, 3, 5
+    };
+
+    private final int M_;             // number of particles
+    private final int[] from_;        // edge end points, copied from the topology
+    private final int[] to_;
+    private final int[] faces_;       // triangle indices of the surface
+
+    private PShape edges_;
+    private PShape surface_;
+    private PShape markers_;
+    private boolean glyphs_;          // octahedra (true) or points (false)
+
+    private float markerSize_ = 4;
+    private int lodThreshold_ = 2000;
+
+    /**
+     *  Builds the retained shapes for a system of M particles. faces holds
+     *  three particle indices per triangle, see FormBuilder.buildFaces().
+     */
+    public MeshRenderer(PApplet p, Topology topology, int[] faces, int M) {
+
+        M_ = M;
+        faces_ = faces;
+
+        int E = topology.E();
+        from_ = new int[E];
+        to_ = new int[E];
+        for (int e = 0; e < E; e++) {
+            from_[e] = topology.from(e);
+            to_[e] = topology.to(e);
+        }
+
+        edges_ = p.createShape();
+        edges_.beginShape(PConstants.LINES);
+        edges_.stroke(0);
+        edges_.strokeWeight(1);
+        for (int v = 0; v < 2 * E; v++) edges_.vertex(0, 0, 0);
+        edges_.endShape();
+
+        surface_ = p.createShape();
+        surface_.beginShape(PConstants.TRIANGLES);
+        surface_.noStroke();
+        surface_.fill(160, 50);
+        for (int v = 0; v < faces.length; v++) surface_.vertex(0, 0, 0);
+        surface_.endShape();
+
+        buildMarkers(p);
+    }
+
+    // markers are rebuilt when the level of detail changes
+    private void buildMarkers(PApplet p) {
+
+        glyphs_ = M_ <= lodThreshold_;
+        markers_ = p.createShape();
+
+        if (glyphs_) {
+            markers_.beginShape(PConstants.TRIANGLES);
+            markers_.noStroke();
+            markers_.fill(p.color(50, 255, 50));
+            for (int v = 0; v < M_ * GLYPH_FACES.length; v++) markers_.vertex(0, 0, 0);
+        } else {
+            markers_.beginShape(PConstants.POINTS);
+            markers_.stroke(p.color(50, 200, 50));
+            markers_.strokeWeight(markerSize_);
+            for (int v = 0; v < M_; v++) markers_.vertex(0, 0, 0);
+        }
+        markers_.endShape();
+    }
+
+    /**
+     *  Writes x y z interleaved positions of all particles into the
+     *  vertex buffers. Connectivity is left untouched.
+     */
+    public void update(float[] pos) {
+
+        int v = 0;
+        for (int e = 0; e < from_.length; e++) {
+            int a = 3 * from_[e], b = 3 * to_[e];
+            edges_.setVertex(v++, pos[a], pos[a + 1], pos[a + 2]);
+            edges_.setVertex(v++, pos[b], pos[b + 1], pos[b + 2]);
+        }
+
+        for (v = 0; v < faces_.length; v++) {
+            int a = 3 * faces_[v];
+            surface_.setVertex(v, pos[a], pos[a + 1], pos[a + 2]);
+        }
+
+        v = 0;
+        for (int i = 0; i < M_; i++) {
+            float x = pos[3*i], y = pos[3*i + 1], z = pos[3*i + 2];
+            if (!glyphs_) {
+                markers_.setVertex(i, x, y, z);
+                continue;
+            }
+            for (int f = 0; f < GLYPH_FACES.length; f++) {
+                float[] d = GLYPH_DIRS[GLYPH_FACES[f]];
+                markers_.setVertex(v++, x + d[0] * markerSize_,
+                                        y + d[1] * markerSize_,
+                                        z + d[2] * markerSize_);
+            }
+        }
+    }
+
+    /**
+     *  Draws the markers, the edges and, optionally, the surface
+     */
+    public void draw(PApplet p, boolean drawSurface) {
+        p.shape(markers_);
+        p.shape(edges_);
+        if (drawSurface) p.shape(surface_);
+    }
+
+    // Setters
+
+    /**
+     *  Particle count above which markers are drawn as points
+     */
+    public void setLodThreshold(PApplet p, int threshold) {
+        boolean glyphs = M_ <= threshold;
+        lodThreshold_ = threshold;
+        if (glyphs != glyphs_) buildMarkers(p);
+    }
+
+    public void setMarkerSize(float size) {
+        markerSize_ = size;
+        if (!glyphs_) markers_.setStrokeWeight(size);
+    }
+
+    // Getters
+
+    public int getLodThreshold() {
+        return lodThreshold_;
+    }
+
+    public boolean drawsGlyphs() {
+        return glyphs_;
+    }
+
+    public static void main(String[] args) { }
+
+}
@@ -0,0 +1,135 @@
+/*************************************************************************
+ *  Dependencies: MassSpringSystem.java
+ *
+ *  Fixed size ring buffer of convergence metrics, one sample every so
+ *  many steps. A sample only copies the totals the force pass already
+ *  accumulated (see MassSpringSystem.getSumFL() and friends), so keeping
+ *  a history costs nothing per step beyond a few stores.
+ *
+ *  Metrics:
+ *      SUM_FL      Sigma F * L
+ *      KINETIC     total kinetic energy
+ *      RESIDUAL    out-of-balance force norm
+ *      MAX_STRAIN  largest spring strain
+ *      REACTION    magnitude of the summed support reactions
+ *
+ *  One thread records, any other may read: a sample is written before
+ *  the volatile count is advanced, so a reader sees only whole samples,
+ *  except when the writer laps it while it copies, which at worst shows
+ *  a newer value in a plot.
+ *************************************************************************/
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+public class MetricsHistory {
+
+    public static final int SUM_FL = 0, KINETIC = 1, RESIDUAL = 2, MAX_STRAIN = 3, REACTION = 4;
+    public static final String[] METRICS = { "sumFL", "kinetic", "residual", "maxStrain", "reaction" };
+
+    private final int capacity_;
+    private final int every_;          // steps between two samples
+    private final long[] steps_;       // step of each sample
+    private final float[] values_;     // capacity rows of METRICS.length values
+    private volatile long count_;      // samples recorded so far
+
+    public MetricsHistory() {
+        this(4096, 1);
+    }
+
+    /**
+     *  @param capacity number of samples kept, older ones are overwritten
+     *  @param every    record one sample every so many steps, see stepped()
+     */
+    public MetricsHistory(int capacity, int every) {
+        capacity_ = Math.max(1, capacity);
+        every_ = Math.max(1, every);
+        steps_ = new long[capacity_];
+        values_ = new float[capacity_ * METRICS.length];
+    }
+
+    /**
+     *  Called after every step (or batch of steps) with the total number
+     *  of steps taken. Records a sample whenever a multiple of the sample
+     *  interval has been passed since the last call.
+     */
+    public void stepped(MassSpringSystem mss, long steps, int batch) {
+        if (steps % every_ < batch) record(mss, steps);
+    }
+
+    // records the metrics of the last force evaluation of mss
+    public void record(MassSpringSystem mss, long step) {
+        long n = count_;
+        int slot = (int) (n % capacity_);
+        int r = slot * METRICS.length;
+        steps_[slot] = step;
+        values_[r + SUM_FL]     = mss.getSumFL();
+        values_[r + KINETIC]    = mss.getKineticEnergy();
+        values_[r + RESIDUAL]   = mss.getResidualNorm();
+        values_[r + MAX_STRAIN] = mss.getMaxStrain();
+        values_[r + REACTION]   = mss.getSupportReactionNorm();
+        count_ = n + 1;
+    }
+
+    // forget all samples, e.g. when the system is replaced
+    public void clear() {  count_ = 0;  }
+
+    /**
+     *  Copies the latest samples of one metric into dst, oldest first.
+     *
+     *  @return the number of values copied, at most dst.length
+     */
+    public int copy(int metric, float[] dst) {
+        long n = count_;
+        int k = (int) Math.min(Math.min(n, capacity_), dst.length);
+        for (int j = 0; j < k; j++) {
+            int slot = (int) ((n - k + j) % capacity_);
+            dst[j] = values_[slot * METRICS.length + metric];
+        }
+        return k;
+    }
+
+    // most recent value of a metric, 0 if nothing was recorded
+    public float latest(int metric) {
+        long n = count_;
+        if (n == 0) return 0f;
+        return values_[(int) ((n - 1) % capacity_) * METRICS.length + metric];
+    }
+
+    /**
+     *  Writes the samples still held as comma separated lines of step and
+     *  metrics, oldest first, after a header line with the column names.
+     */
+    public void writeCsv(Writer out) throws IOException {
+        BufferedWriter w = new BufferedWriter(out, 1 << 16);
+        w.write("step");
+        for (String name : METRICS) {
+            w.write(',');
+            w.write(name);
+        }
+        w.write('\n');
+
+        long n = count_;
+        for (long j = Math.max(0, n - capacity_); j < n; j++) {
+            int slot = (int) (j % capacity_);
+            w.write(Long.toString(steps_[slot]));
+            for (int m = 0; m < METRICS.length; m++) {
+                w.write(',');
+                w.write(Float.toString(values_[slot * METRICS.length + m]));
+            }
+            w.write('\n');
+        }
+        w.flush();
+    }
+
+    // Getters
+
+    public int size()         {  return (int) Math.min(count_, capacity_);  }
+    public long getCount()    {  return count_;  }
+    public int getCapacity()  {  return capacity_;  }
+    public int getInterval()  {  return every_;  }
+
+    public static void main(String[] args) { }
+
+}
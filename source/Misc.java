@@ -117,6 +117,46 @@ public class Misc {
 	       displaytext(p5, "Sigma FL: ", p5.createFont("Courier", 11), 11, 0, 'C', 180, H - 100);
 	}
 
+	// label font of plotSeries(), created on first use
+	private static PFont plotFont_;
+	
+	/**
+	 *  Plots the first n values as a polyline in the box x, y, w, h, scaled
+	 *  to their range, on a log10 scale when log is set, and labels it with
+	 *  the latest value. The values are left unchanged.
+	 */
+	public static void plotSeries(final PApplet p5, float[] values, int n, boolean log, String label, int x, int y, int w, int h) {
+		p5.noFill();
+		p5.stroke(180, 90);
+		p5.strokeWeight(1);
+		p5.line(x, y + h, x + w, y + h);
+		if (n < 2) return;
+		
+		float lo = Float.MAX_VALUE, hi = -Float.MAX_VALUE;
+		for (int i = 0; i < n; i++) {
+			float v = scaled(values[i], log);
+			lo = Math.min(lo, v);
+			hi = Math.max(hi, v);
+		}
+		float range = (hi > lo) ? hi - lo : 1f;
+		
+		p5.stroke(0);
+		float v0 = scaled(values[0], log);
+		for (int i = 1; i < n; i++) {
+			float v1 = scaled(values[i], log);
+			float x0 = x + (i - 1) * w / (float) (n - 1), x1 = x + i * w / (float) (n - 1);
+			float y0 = y + h - (v0 - lo) / range * h, y1 = y + h - (v1 - lo) / range * h;
+			p5.line(x0, y0, x1, y1);
+			v0 = v1;
+		}
+		if (plotFont_ == null) plotFont_ = p5.createFont("Courier", 11);
+		displaytext(p5, label + ": " + values[n - 1], plotFont_, 11, 0, 'L', x, y - 4);
+	}
+	
+	private static float scaled(float v, boolean log) {
+		return log ? (float) Math.log10(Math.max(v, 1e-12f)) : v;
+	}
+	
 	ArrayList<PVector> pVectorsFromExternalTXT(final PApplet p5, String dir) {
 	    ArrayList<PVector> temp = new ArrayList<PVector>();
 	    String[] strLines = p5.loadStrings(dir);
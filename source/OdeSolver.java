@@ -1,9 +1,14 @@
 /*************************************************************************
  *  Compilation:  javac OdeSolver.java
  *  Execution:    java OdeSolver
- *  Dependencies: toxiclibscore.jar  MassSpringSystem.java
+ *  Dependencies: toxiclibscore.jar  MassSpringSystem.java  Constraints.java
+ *                Integrator.java
  *
- *  Ordinary Differential Equation solver via simple Euler forward method.
+ *  Ordinary Differential Equation solver. The interleaved Vec3D state is
+ *  advanced by a simple Euler forward method; systems in primitive mode 
+ *  are advanced in place by a pluggable Integrator (Euler forward by 
+ *  default, see SemiImplicitEuler, VelocityVerlet, RungeKutta4 and the
+ *  adaptive DormandPrince45, or BackwardEuler for stiff springs).
  *  
  *  @author Alexandros Charidis, MIT
  *************************************************************************/
@@ -12,25 +17,87 @@ import toxi.geom.Vec3D;
 
 public class OdeSolver {
 
+	private Integrator integrator_;
+	private double time_;    // simulated time, sum of the steps taken
+	private long steps_;
+	private Instrumentation stats_;   // optional timers, or null
+	
 	/**
 	 * Default constructor
 	 */
-	public OdeSolver(){ }
+	public OdeSolver(){
+		integrator_ = new ForwardEuler();
+	}
+	
+	public OdeSolver(Integrator integrator){
+		integrator_ = integrator;
+	}
 	
 	public Vec3D[] takeStep(MassSpringSystem mss_, final float h){
+		if (mss_.isPrimitive()) {
+			takeStepInPlace(mss_, h);
+			return mss_.getState();
+		}
+		
+		long t0 = (stats_ != null) ? stats_.begin() : 0;
+		
 		Vec3D[] state = mss_.getState();
         Vec3D[] derX = mss_.evalF(state);
         
-        int num = state.length;
-        Vec3D[] newState = new Vec3D[num];
+        int num = mss_.getNumMasses();
+        Vec3D[] newState = new Vec3D[2 * num];
+        
+        Constraints con = mss_.getConstraints();
+        byte[] mask = con.getMask();
  
+        time_ += h;
+        steps_++;
+        
         for (int i = 0; i < num; i++) {
-            newState[i] = state[i].add(derX[i].scale(h));
+            newState[i*2]     = state[i*2].add(derX[i*2].scale(h));
+            newState[i*2 + 1] = state[i*2 + 1].add(derX[i*2 + 1].scale(h));
+            
+            // enforce supports and prescribed displacements
+            if (mask[i] != 0) con.apply(i, newState[i*2], newState[i*2 + 1]);
+        }
+        
+        if (stats_ != null) {
+            stats_.end(Instrumentation.STEP, t0);
+            stats_.stepped(1);
         }
 
         return newState;
 	}
 	
+	/**
+	 * Advances the flat arrays of a primitive mass spring system in place
+	 * with the current integrator. Nothing is allocated per step.
+	 */
+	public float takeStepInPlace(MassSpringSystem mss_, final float h){
+		long t0 = (stats_ != null) ? stats_.begin() : 0;
+		
+		float taken = integrator_.step(mss_, h);
+		time_ += taken;
+		steps_++;
+		
+		if (stats_ != null) {
+		    stats_.end(Instrumentation.STEP, t0);
+		    stats_.stepped(1);
+		}
+		return taken;
+	}
+	
+	public void setIntegrator(Integrator integrator) {  integrator_ = integrator;  }
+	public Integrator getIntegrator() {  return integrator_;  }
+	
+	// times every step, or stops timing when null
+	public void setInstrumentation(Instrumentation stats) {  stats_ = stats;  }
+	
+	// simulated time and step count, e.g. restored from a checkpoint
+	public void setTime(double time, long steps) {  time_ = time;  steps_ = steps;  }
+	public double getTime() {  return time_;  }
+	public long getSteps()  {  return steps_;  }
+	
 	public static void main(String[] args) { }
 
 }
@@ -0,0 +1,76 @@
+/*************************************************************************
+ *  Dependencies: MassSpringSystem.java  EdgeColoring.java  SpringKernel.java
+ *
+ *  Multi-core spring force accumulation. The springs are processed one
+ *  edge color at a time; within a color no two springs share a particle,
+ *  so the color is split into ranges that run on a ForkJoinPool and 
+ *  scatter into the force array directly. Colors are separated by the 
+ *  join of the previous one.
+ *  
+ *  Colors smaller than the grain size run on the calling thread.
+ *************************************************************************/
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+public class ParallelSpringForces implements SpringKernel {
+    
+    private ForkJoinPool pool_;
+    private EdgeColoring coloring_;
+    private int grain_;               // springs per task
+    
+    public ParallelSpringForces(MassSpringSystem mss) {
+        this(mss, ForkJoinPool.commonPool(), 4096);
+    }
+    
+    public ParallelSpringForces(MassSpringSystem mss, ForkJoinPool pool, int grain) {
+        pool_ = pool;
+        grain_ = Math.max(1, grain);
+        coloring_ = new EdgeColoring(mss.getTopology());
+    }
+    
+    // one range of springs of a single color
+    private class Range extends RecursiveAction {
+        
+        private static final long serialVersionUID = 1L;
+        
+        final MassSpringSystem mss;
+        final float[] pos, frc;
+        final int lo, hi;
+        
+        Range(MassSpringSystem mss, float[] pos, float[] frc, int lo, int hi) {
+            this.mss = mss;  this.pos = pos;  this.frc = frc;
+            this.lo = lo;  this.hi = hi;
+        }
+        
+        protected void compute() {
+            if (hi - lo <= grain_) {
+                mss.accumulateSprings(coloring_.getOrder(), lo, hi, pos, frc);
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new Range(mss, pos, frc, lo, mid), new Range(mss, pos, frc, mid, hi));
+        }
+    }
+    
+    /**
+     *  Adds the forces of all springs of mss into frc, color by color.
+     */
+    public void accumulate(MassSpringSystem mss, float[] pos, float[] frc) {
+        int[] order = coloring_.getOrder();
+        int[] start = coloring_.getColorStart();
+        for (int c = 0; c < coloring_.colors(); c++) {
+            int lo = start[c], hi = start[c + 1];
+            if (hi - lo <= grain_) {
+                mss.accumulateSprings(order, lo, hi, pos, frc);
+            } else {
+                pool_.invoke(new Range(mss, pos, frc, lo, hi));
+            }
+        }
+    }
+    
+    public EdgeColoring getColoring() {  return coloring_;  }
+    
+    public static void main(String[] args) { }
+    
+}
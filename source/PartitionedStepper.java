@@ -0,0 +1,276 @@
+/*************************************************************************
+ *  Dependencies: MassSpringSystem.java  Constraints.java  Integrator.java
+ *
+ *  Parallel Euler stepping with reproducible results. The springs are 
+ *  ordered by their lower particle index and cut into a fixed number of
+ *  contiguous chunks. A step has two parallel passes:
+ *
+ *    1. every chunk accumulates its spring forces into a private buffer
+ *       covering only the particles the chunk touches, as at most two
+ *       windows split at the widest gap between them (a type 3 chunk
+ *       touches a band of grid nodes and the band of their centroids,
+ *       which are numbered after all grid nodes);
+ *    2. every particle range adds gravity, drag and loads, then the chunk 
+ *       buffers overlapping the range in ascending chunk order, and 
+ *       integrates and constrains its particles in the same loop.
+ *
+ *  The summation order for a particle depends only on the number of 
+ *  chunks, never on the number of threads or on scheduling, so results
+ *  are bit-for-bit identical across runs and pool sizes. main() checks
+ *  this on a given form, e.g.
+ *
+ *      java PartitionedStepper 3 200 100
+ *
+ *  for 100 steps of a 200 x 200 grid of topology type 3.
+ *************************************************************************/
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+public class PartitionedStepper implements Integrator {
+    
+    private ForkJoinPool pool_;
+    private int chunks_;             // number of spring chunks
+    private int block_;              // particles per integration task
+    private boolean symplectic_;     // semi-implicit instead of forward Euler
+    
+    private MassSpringSystem owner_; // system the partition was built for
+    private int[] order_;            // spring ids sorted by lower endpoint
+    private int[] chunkStart_;       // offsets into order_ (size chunks + 1)
+    private int[] vmin_, vmax_;      // first particle window of each chunk
+    private int[] wmin_, wmax_;      // second particle window, empty if wmin > wmax
+    private float[][] buf_;          // private force buffer of each chunk
+    private float[] loads_;          // surface and point loads, or null
+    
+    public PartitionedStepper() {
+        this(ForkJoinPool.commonPool(), 64, true);
+    }
+    
+    public PartitionedStepper(ForkJoinPool pool, int chunks, boolean symplectic) {
+        pool_ = pool;
+        chunks_ = Math.max(1, chunks);
+        block_ = 4096;
+        symplectic_ = symplectic;
+    }
+    
+    // order the springs, cut them into chunks and size the chunk buffers
+    private void partition(MassSpringSystem mss) {
+        int M = mss.getNumMasses();
+        int S = mss.getNumSprings();
+        int[] from = mss.getSpringFrom();
+        int[] to = mss.getSpringTo();
+        
+        // counting sort by lower endpoint keeps each chunk's window narrow
+        int[] count = new int[M + 1];
+        for (int s = 0; s < S; s++) count[Math.min(from[s], to[s]) + 1]++;
+        for (int v = 0; v < M; v++) count[v + 1] += count[v];
+        order_ = new int[S];
+        for (int s = 0; s < S; s++) order_[count[Math.min(from[s], to[s])]++] = s;
+        
+        int C = Math.min(chunks_, Math.max(1, S));
+        chunkStart_ = new int[C + 1];
+        vmin_ = new int[C];
+        vmax_ = new int[C];
+        wmin_ = new int[C];
+        wmax_ = new int[C];
+        buf_ = new float[C][];
+        for (int c = 0; c < C; c++) {
+            chunkStart_[c + 1] = (int) ((long) S * (c + 1) / C);
+            int k0 = chunkStart_[c], n = chunkStart_[c + 1] - k0;
+            
+            // touched particles in ascending order
+            int[] v = new int[2 * n];
+            for (int k = 0; k < n; k++) {
+                int s = order_[k0 + k];
+                v[2*k] = from[s];
+                v[2*k + 1] = to[s];
+            }
+            java.util.Arrays.sort(v);
+            
+            // split the windows at the widest gap, if any
+            int cut = 0;
+            for (int k = 1; k < v.length; k++) {
+                if (v[k] - v[k - 1] > 1 && (cut == 0 || v[k] - v[k - 1] > v[cut] - v[cut - 1])) cut = k;
+            }
+            if (n == 0) {
+                vmin_[c] = 0;  vmax_[c] = -1;
+                wmin_[c] = M;  wmax_[c] = M - 1;
+            } else if (cut == 0) {
+                vmin_[c] = v[0];  vmax_[c] = v[v.length - 1];
+                wmin_[c] = M;  wmax_[c] = M - 1;
+            } else {
+                vmin_[c] = v[0];  vmax_[c] = v[cut - 1];
+                wmin_[c] = v[cut];  wmax_[c] = v[v.length - 1];
+            }
+            buf_[c] = new float[3 * (vmax_[c] - vmin_[c] + 1 + wmax_[c] - wmin_[c] + 1)];
+        }
+        owner_ = mss;
+    }
+    
+    // pass 1: chunks c0 .. c1 - 1 into their private buffers
+    private class SpringPass extends RecursiveAction {
+        
+        private static final long serialVersionUID = 1L;
+        
+        final MassSpringSystem mss;
+        final int c0, c1;
+        
+        SpringPass(MassSpringSystem mss, int c0, int c1) {
+            this.mss = mss;  this.c0 = c0;  this.c1 = c1;
+        }
+        
+        protected void compute() {
+            if (c1 - c0 > 1) {
+                int mid = (c0 + c1) >>> 1;
+                invokeAll(new SpringPass(mss, c0, mid), new SpringPass(mss, mid, c1));
+                return;
+            }
+            float[] buf = buf_[c0];
+            java.util.Arrays.fill(buf, 0f);
+            mss.accumulateSprings(order_, chunkStart_[c0], chunkStart_[c0 + 1], mss.getPositions(), 
+                                  buf, vmin_[c0], wmin_[c0], wmin_[c0] - vmax_[c0] - 1);
+        }
+    }
+    
+    // pass 2: reduce and integrate particles p0 .. p1 - 1
+    private class ParticlePass extends RecursiveAction {
+        
+        private static final long serialVersionUID = 1L;
+        
+        final MassSpringSystem mss;
+        final float h;
+        final int p0, p1;
+        
+        ParticlePass(MassSpringSystem mss, float h, int p0, int p1) {
+            this.mss = mss;  this.h = h;  this.p0 = p0;  this.p1 = p1;
+        }
+        
+        protected void compute() {
+            if (p1 - p0 > block_) {
+                int mid = (p0 + p1) >>> 1;
+                invokeAll(new ParticlePass(mss, h, p0, mid), new ParticlePass(mss, h, mid, p1));
+                return;
+            }
+            integrate(mss, h, p0, p1);
+        }
+    }
+    
+    private void integrate(MassSpringSystem mss, float h, int p0, int p1) {
+        float[] pos = mss.getPositions();
+        float[] vel = mss.getVelocities();
+        float[] frc = mss.getForces();
+        Constraints con = mss.getConstraints();
+        byte[] mask = con.getMask();
+        
+        // gravity and viscous drag, then surface and point loads
+        mss.getForceFields().applyBody(p0, p1, vel, frc);
+        if (loads_ != null) {
+            for (int k = p0 * 3, n = p1 * 3; k < n; k++) frc[k] += loads_[k];
+        }
+        
+        // spring forces, chunk buffers in fixed ascending order; the two
+        // windows of a chunk are disjoint, so each particle still sees the
+        // chunks in that order
+        for (int c = 0; c < buf_.length; c++) {
+            float[] buf = buf_[c];
+            add(frc, buf, p0, p1, vmin_[c], vmax_[c], 0);
+            add(frc, buf, p0, p1, wmin_[c], wmax_[c], vmax_[c] - vmin_[c] + 1);
+        }
+        mss.accumulateBalance(p0, p1, vel, frc);
+        
+        for (int i = p0; i < p1; i++) {
+            int a = i * 3;
+            if (symplectic_) {
+                for (int k = a; k < a + 3; k++) {
+                    vel[k] += frc[k] * h;
+                    pos[k] += vel[k] * h;
+                }
+            } else {
+                for (int k = a; k < a + 3; k++) {
+                    pos[k] += vel[k] * h;
+                    vel[k] += frc[k] * h;
+                }
+            }
+            if (mask[i] != 0) con.apply(i, pos, vel);
+        }
+    }
+    
+    // adds window lo .. hi of a chunk buffer, stored from slot off, to particles p0 .. p1 - 1
+    private static void add(float[] frc, float[] buf, int p0, int p1, int lo, int hi, int off) {
+        int from = Math.max(p0, lo), to = Math.min(p1, hi + 1);
+        for (int k = from * 3, j = (off + from - lo) * 3, n = to * 3; k < n; k++, j++) {
+            frc[k] += buf[j];
+        }
+    }
+    
+    public float step(MassSpringSystem mss, final float h) {
+        if (owner_ != mss) partition(mss);
+        
+        mss.clearMetrics();
+        
+        // surface and point loads scatter across ranges, so they are
+        // gathered into one buffer first, only when any is enabled
+        ForceFields fields = mss.getForceFields();
+        if (fields.hasLoads()) {
+            if (loads_ == null || loads_.length != 3 * mss.getNumMasses()) loads_ = new float[3 * mss.getNumMasses()];
+            java.util.Arrays.fill(loads_, 0f);
+            fields.applyLoads(mss.getPositions(), loads_, mss.getInverseMasses());
+        } else {
+            loads_ = null;
+        }
+        pool_.invoke(new SpringPass(mss, 0, buf_.length));
+        pool_.invoke(new ParticlePass(mss, h, 0, mss.getNumMasses()));
+        return h;
+    }
+    
+    // rebuild the partition, e.g. after setupSprings() was called again
+    public void reset() {  owner_ = null;  }
+    
+    public int getChunks() {  return buf_ == null ? chunks_ : buf_.length;  }
+    
+    // floats held by the chunk buffers, 0 before the first step
+    public long getBufferSize() {
+        long n = 0;
+        if (buf_ != null) for (float[] b : buf_) n += b.length;
+        return n;
+    }
+    
+    /**
+     *  Steps the same form with pools of 1, 2, 4 ... threads, up to the
+     *  number of processors but at least 4, and checks that the positions agree bit for
+     *  bit. Arguments: topology type, grid size and steps.
+     */
+    public static void main(String[] args) {
+        int type  = (args.length > 0) ? Integer.parseInt(args[0]) : 3;
+        int n     = (args.length > 1) ? Integer.parseInt(args[1]) : 100;
+        int steps = (args.length > 2) ? Integer.parseInt(args[2]) : 100;
+        
+        int maxThreads = Math.max(4, Runtime.getRuntime().availableProcessors());
+        int[] first = null;
+        boolean same = true;
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            FormBuilder builder = new FormBuilder(type, n, n);
+            builder.setRandom(new java.util.Random(0));
+            MassSpringSystem mss = new MassSpringSystem(builder.buildTopology(), true);
+            mss.initialize(builder.buildGeometry(), builder.cornerSupports());
+            mss.setupSprings(0.07f, -0.0004f);
+            
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            PartitionedStepper stepper = new PartitionedStepper(pool, 64, true);
+            for (int k = 0; k < steps; k++) stepper.step(mss, 0.5f);
+            pool.shutdown();
+            
+            float[] pos = mss.getPositions();
+            int[] bits = new int[pos.length];
+            for (int k = 0; k < pos.length; k++) bits[k] = Float.floatToRawIntBits(pos[k]);
+            if (first == null) first = bits;
+            boolean equal = java.util.Arrays.equals(first, bits);
+            same &= equal;
+            
+            System.out.printf("%3d threads  %s  buffers %.2f x state%n", threads, 
+                              equal ? "identical" : "DIFFERENT", stepper.getBufferSize() / (double) pos.length);
+        }
+        if (!same) System.exit(1);
+    }
+    
+}
@@ -0,0 +1,51 @@
+/*************************************************************************
+ *  Dependencies: jdk.jfr (JDK 11 or later) Instrumentation.java
+ *
+ *  JDK Flight Recorder event for one timed simulation phase, committed by
+ *  Instrumentation when a recording has the event enabled. This is the
+ *  only class that refers to jdk.jfr; Instrumentation loads its Sink by
+ *  name, so the rest of the application builds and runs without it.
+ *
+ *  Record with e.g.
+ *      java -XX:StartFlightRecording=filename=run.jfr FormFindingCLI ...
+ *************************************************************************/
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+@Name("dffa.SimulationPhase")
+@Label("Simulation Phase")
+@Category("Dynamic Form Finding")
+@Description("Time spent in one phase of the mass spring simulation")
+public class PhaseEvent extends Event {
+
+    @Label("Phase")
+    String phase;
+
+    @Label("Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long nanos;
+
+    @Label("Steps")
+    @Description("Steps taken by the system so far")
+    long steps;
+
+    // commits one event per timed section, instantiated by Instrumentation
+    public static class Sink implements Instrumentation.PhaseSink {
+        public void emit(String phase, long nanos, long steps) {
+            PhaseEvent e = new PhaseEvent();
+            if (!e.isEnabled()) return;
+            e.phase = phase;
+            e.nanos = nanos;
+            e.steps = steps;
+            e.commit();
+        }
+    }
+
+    public static void main(String[] args) { }
+
+}
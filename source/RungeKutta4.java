@@ -0,0 +1,72 @@
+/*************************************************************************
+ *  Dependencies: MassSpringSystem.java  Constraints.java
+ *
+ *  Classic fourth order Runge-Kutta method. The four stage derivatives
+ *  and the trial state live in scratch buffers that are allocated once
+ *  and reused, so a step evaluates the forces four times without 
+ *  allocating anything.
+ *************************************************************************/
+
+public class RungeKutta4 implements Integrator {
+    
+    // stage derivatives (x' = v, v' = F) and trial state
+    private float[] k1x_, k1v_, k2x_, k2v_, k3x_, k3v_, k4x_, k4v_;
+    private float[] tx_, tv_;
+    
+    private void ensureCapacity(int n) {
+        k1x_ = Integrator.ensure(k1x_, n);  k1v_ = Integrator.ensure(k1v_, n);
+        k2x_ = Integrator.ensure(k2x_, n);  k2v_ = Integrator.ensure(k2v_, n);
+        k3x_ = Integrator.ensure(k3x_, n);  k3v_ = Integrator.ensure(k3v_, n);
+        k4x_ = Integrator.ensure(k4x_, n);  k4v_ = Integrator.ensure(k4v_, n);
+        tx_  = Integrator.ensure(tx_, n);   tv_  = Integrator.ensure(tv_, n);
+    }
+    
+    // trial state t = y + c * k, with constraints enforced
+    private void trial(MassSpringSystem mss, float[] pos, float[] vel, float[] kx, float[] kv, float c) {
+        int n = 3 * mss.getNumMasses();
+        for (int i = 0; i < n; i++) {
+            tx_[i] = pos[i] + kx[i] * c;
+            tv_[i] = vel[i] + kv[i] * c;
+        }
+        Constraints con = mss.getConstraints();
+        byte[] mask = con.getMask();
+        for (int i = 0, m = mss.getNumMasses(); i < m; i++) {
+            if (mask[i] != 0) con.apply(i, tx_, tv_);
+        }
+    }
+    
+    public float step(MassSpringSystem mss, final float h) {
+        float[] pos = mss.getPositions();
+        float[] vel = mss.getVelocities();
+        
+        int n = 3 * mss.getNumMasses();
+        ensureCapacity(n);
+        
+        mss.evalF(pos, vel, k1x_, k1v_);
+        
+        trial(mss, pos, vel, k1x_, k1v_, 0.5f * h);
+        mss.evalF(tx_, tv_, k2x_, k2v_);
+        
+        trial(mss, pos, vel, k2x_, k2v_, 0.5f * h);
+        mss.evalF(tx_, tv_, k3x_, k3v_);
+        
+        trial(mss, pos, vel, k3x_, k3v_, h);
+        mss.evalF(tx_, tv_, k4x_, k4v_);
+        
+        float h6 = h / 6f;
+        for (int i = 0; i < n; i++) {
+            pos[i] += h6 * (k1x_[i] + 2f * k2x_[i] + 2f * k3x_[i] + k4x_[i]);
+            vel[i] += h6 * (k1v_[i] + 2f * k2v_[i] + 2f * k3v_[i] + k4v_[i]);
+        }
+        
+        Constraints con = mss.getConstraints();
+        byte[] mask = con.getMask();
+        for (int i = 0, m = mss.getNumMasses(); i < m; i++) {
+            if (mask[i] != 0) con.apply(i, pos, vel);
+        }
+        return h;
+    }
+    
+    public static void main(String[] args) { }
+    
+}
@@ -0,0 +1,38 @@
+/*************************************************************************
+ *  Dependencies: MassSpringSystem.java  Constraints.java
+ *
+ *  Semi-implicit (symplectic) Euler method: the velocity is updated 
+ *  first, v += h * F, and the position uses the new velocity, x += h * v.
+ *  Same cost as Euler forward, but it does not pump energy into the 
+ *  springs and so tolerates much larger steps.
+ *************************************************************************/
+
+public class SemiImplicitEuler implements Integrator {
+    
+    public float step(MassSpringSystem mss, final float h) {
+        float[] pos = mss.getPositions();
+        float[] vel = mss.getVelocities();
+        float[] frc = mss.getForces();
+        
+        Constraints con = mss.getConstraints();
+        byte[] mask = con.getMask();
+        
+        mss.computeForces(pos, vel);
+        
+        for (int i = 0, n = mss.getNumMasses(); i < n; i++) {
+            int a = i * 3;
+            vel[a]     += frc[a] * h;
+            vel[a + 1] += frc[a + 1] * h;
+            vel[a + 2] += frc[a + 2] * h;
+            pos[a]     += vel[a] * h;
+            pos[a + 1] += vel[a + 1] * h;
+            pos[a + 2] += vel[a + 2] * h;
+            
+            if (mask[i] != 0) con.apply(i, pos, vel);
+        }
+        return h;
+    }
+    
+    public static void main(String[] args) { }
+    
+}
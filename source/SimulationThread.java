@@ -0,0 +1,247 @@
+/*************************************************************************
+ *  Dependencies: MassSpringSystem.java  OdeSolver.java  SnapshotBuffer.java
+ *                Checkpoint.java TrajectoryRecorder.java Instrumentation.java
+ *                MetricsHistory.java
+ *
+ *  Runs the mass spring system on its own thread, decoupled from the 
+ *  render loop. The thread owns the system: every change requested by
+ *  the GUI (slider values, anchors, a new system after a reset) is posted
+ *  as a command and executed between steps, so the physics never sees a
+ *  half applied edit. After each batch of steps the positions are 
+ *  published through a SnapshotBuffer that draw() reads without locking.
+ *  Optionally a checkpoint is written every so many steps, also from the
+ *  simulation thread, so it always holds a consistent state, and a 
+ *  TrajectoryRecorder can stream every Nth state to disk for replay.
+ *  With an Instrumentation set, steps, force evaluations, snapshots and
+ *  saves are timed. The convergence metrics of every batch are kept in a
+ *  MetricsHistory the GUI can plot.
+ *************************************************************************/
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+public class SimulationThread implements Runnable {
+    
+    private final ConcurrentLinkedQueue<Runnable> commands_ = new ConcurrentLinkedQueue<Runnable>();
+    private final SnapshotBuffer snapshots_ = new SnapshotBuffer();
+    private final MetricsHistory history_ = new MetricsHistory(1024, 10);
+    
+    private OdeSolver ode_;
+    private float h_;
+    private int batch_;                  // steps between two snapshots
+    
+    private MassSpringSystem system_;    // only touched on the simulation thread
+    private long steps_;
+    private boolean dirty_;              // publish even when not running
+    
+    private String autosaveFile_;        // checkpoint file, or null
+    private long autosaveEvery_;         // steps between two checkpoints
+    private volatile TrajectoryRecorder recorder_; // or null
+    private Instrumentation stats_;      // or null
+    
+    private volatile boolean running_;   // stepping or idle
+    private volatile boolean alive_;
+    private Thread thread_;
+    
+    public SimulationThread(OdeSolver ode, float h) {
+        ode_ = ode;
+        h_ = h;
+        batch_ = 10;
+    }
+    
+    public void start() {
+        alive_ = true;
+        thread_ = new Thread(this, "simulation");
+        thread_.setDaemon(true);
+        thread_.start();
+    }
+    
+    public void shutdown() {
+        alive_ = false;
+        if (thread_ != null) LockSupport.unpark(thread_);
+    }
+    
+    // queue a command for the simulation thread
+    public void post(Runnable command) {
+        commands_.add(command);
+        if (thread_ != null) LockSupport.unpark(thread_);
+    }
+    
+    // replace the simulated system, e.g. after a reset
+    public void setSystem(final MassSpringSystem mss) {
+        setSystem(mss, 0.0, 0L);
+    }
+    
+    // replace the simulated system by one resumed at the given time and step
+    public void setSystem(final MassSpringSystem mss, final double time, final long steps) {
+        post(new Runnable() {
+            public void run() {
+                if (mss != system_) stopRecording();
+                mss.setInstrumentation(stats_);
+                system_ = mss;
+                steps_ = steps;
+                history_.clear();
+                ode_.setTime(time, steps);
+                dirty_ = true;
+            }
+        });
+    }
+    
+    // write a checkpoint of the current system between two steps
+    public void checkpoint(final String file) {
+        post(new Runnable() {
+            public void run() {
+                if (system_ != null) save(system_, file);
+            }
+        });
+    }
+    
+    /**
+     *  Records the current system to a trajectory from the next batch on,
+     *  replacing (and closing) any recording in progress. Recording stops
+     *  when the system is replaced.
+     */
+    public void record(final String file, final int every, final float quantum) {
+        post(new Runnable() {
+            public void run() {
+                stopRecording();
+                if (system_ == null) return;
+                try {
+                    recorder_ = new TrajectoryRecorder(file, system_.getNumMasses(), every, quantum);
+                    recorder_.record(system_, steps_);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    recorder_ = null;
+                }
+            }
+        });
+    }
+    
+    // close the current trajectory, if any
+    public void stopRecording() {
+        if (Thread.currentThread() != thread_) {
+            post(new Runnable() {
+                public void run() {  stopRecording();  }
+            });
+            return;
+        }
+        if (recorder_ == null) return;
+        try {
+            recorder_.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        recorder_ = null;
+    }
+    
+    private void save(MassSpringSystem mss, String file) {
+        try {
+            Checkpoint.write(mss, ode_.getTime(), steps_, file);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+    
+    public void run() {
+        while (alive_) {
+            
+            boolean edited = false;
+            for (Runnable c; (c = commands_.poll()) != null; ) {
+                c.run();
+                edited = true;
+            }
+            
+            MassSpringSystem mss = system_;
+            if (mss == null) {
+                LockSupport.parkNanos(1000000L);
+                continue;
+            }
+            
+            if (running_) {
+                for (int i = 0; i < batch_; i++) {
+                    if (mss.isPrimitive()) ode_.takeStepInPlace(mss, h_);
+                    else mss.setState(ode_.takeStep(mss, h_));
+                }
+                steps_ += batch_;
+                history_.stepped(mss, steps_, batch_);
+                publish(mss);
+                
+                long t0 = (stats_ != null) ? stats_.begin() : 0;
+                if (autosaveFile_ != null && steps_ % autosaveEvery_ < batch_) {
+                    save(mss, autosaveFile_);
+                }
+                if (recorder_ != null) {
+                    try {
+                        recorder_.stepped(mss, steps_, batch_);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                        stopRecording();
+                    }
+                }
+                if (stats_ != null) stats_.end(Instrumentation.CHECKPOINT, t0);
+            } else {
+                if (edited || dirty_) publish(mss);
+                dirty_ = false;
+                LockSupport.parkNanos(1000000L);
+            }
+        }
+    }
+    
+    private void publish(MassSpringSystem mss) {
+        long t0 = (stats_ != null) ? stats_.begin() : 0;
+        SnapshotBuffer.Snapshot s = snapshots_.writeSlot(mss.getNumMasses());
+        mss.copyPositions(s.positions);
+        s.source = mss;
+        s.step = steps_;
+        
+        long t1 = (stats_ != null) ? stats_.begin() : 0;
+        s.sumFL = mss.getSumFL();
+        if (stats_ != null) stats_.end(Instrumentation.SUM_FL, t1);
+        
+        snapshots_.publish();
+        if (stats_ != null) stats_.end(Instrumentation.PUBLISH, t0);
+    }
+    
+    // Setters
+    
+    public void setRunning(boolean running) {
+        running_ = running;
+        if (thread_ != null) LockSupport.unpark(thread_);
+    }
+    public void setBatch(int steps) {  batch_ = Math.max(1, steps);  }
+    
+    // times the simulation from the next command on, or stops when null
+    public void setInstrumentation(final Instrumentation stats) {
+        post(new Runnable() {
+            public void run() {
+                stats_ = stats;
+                ode_.setInstrumentation(stats);
+                if (system_ != null) system_.setInstrumentation(stats);
+            }
+        });
+    }
+    
+    /**
+     *  Writes a checkpoint to file every so many steps while running, or
+     *  never when file is null
+     */
+    public void setAutosave(final String file, final long every) {
+        post(new Runnable() {
+            public void run() {
+                autosaveFile_ = file;
+                autosaveEvery_ = Math.max(1, every);
+            }
+        });
+    }
+    
+    // Getters
+    
+    public SnapshotBuffer.Snapshot latest() {  return snapshots_.latest();  }
+    public MetricsHistory getHistory() {  return history_;  }
+    public boolean isRunning() {  return running_;  }
+    public boolean isRecording() {  return recorder_ != null;  }
+    
+    public static void main(String[] args) { }
+    
+}
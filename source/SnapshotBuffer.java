@@ -0,0 +1,58 @@
+/*************************************************************************
+ *  Dependencies: MassSpringSystem.java
+ *
+ *  Lock-free triple buffer for handing particle positions from the 
+ *  simulation thread to the render loop. The writer fills its own 
+ *  snapshot and publishes it by swapping it with the shared middle slot;
+ *  the reader swaps the middle slot with its own snapshot only when a 
+ *  newer one was published. Neither side ever waits, and a snapshot 
+ *  returned by latest() is not touched by the writer until the reader 
+ *  calls latest() again.
+ *************************************************************************/
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SnapshotBuffer {
+    
+    /**
+     *  Positions of one system at one step, with the values the GUI 
+     *  displays next to them.
+     */
+    public static class Snapshot {
+        public float[] positions = new float[0];  // x y z interleaved
+        public MassSpringSystem source;           // system it was taken from
+        public long step;                         // steps taken when taken
+        public float sumFL;                       // Sigma F * L
+    }
+    
+    private static final int DIRTY = 4;   // set when middle holds a new snapshot
+    
+    private final Snapshot[] slots_ = { new Snapshot(), new Snapshot(), new Snapshot() };
+    private final AtomicInteger middle_ = new AtomicInteger(1);
+    
+    private int write_ = 0;   // owned by the writer
+    private int read_ = 2;    // owned by the reader
+    
+    // snapshot the writer may fill, sized for M particles
+    public Snapshot writeSlot(int M) {
+        Snapshot s = slots_[write_];
+        if (s.positions.length != 3 * M) s.positions = new float[3 * M];
+        return s;
+    }
+    
+    // make the filled write slot visible to the reader
+    public void publish() {
+        write_ = middle_.getAndSet(write_ | DIRTY) & 3;
+    }
+    
+    // most recent published snapshot
+    public Snapshot latest() {
+        if ((middle_.get() & DIRTY) != 0) {
+            read_ = middle_.getAndSet(read_) & 3;
+        }
+        return slots_[read_];
+    }
+    
+    public static void main(String[] args) { }
+    
+}
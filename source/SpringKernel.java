@@ -0,0 +1,46 @@
+/*************************************************************************
+ *  Dependencies: MassSpringSystem.java VectorSpringKernel.java (optional)
+ *
+ *  Spring pass of the primitive force evaluation. A kernel adds the 
+ *  forces of all springs of a system into a force array, records every
+ *  spring's length and force, and adds Sigma FL and the largest strain
+ *  to the system's metrics (see MassSpringSystem.accumulateSprings()).
+ *  Set one with MassSpringSystem.setSpringKernel().
+ *
+ *  vectorized() returns the SIMD kernel built on the Vector API when its
+ *  class was compiled and the runtime has jdk.incubator.vector, and the
+ *  scalar kernel otherwise. The SIMD kernel is only ever loaded by name,
+ *  so the rest of the application builds and runs on any JDK.
+ *************************************************************************/
+
+public interface SpringKernel {
+    
+    /**
+     *  Adds the forces of all springs of mss, at positions pos, into frc
+     */
+    void accumulate(MassSpringSystem mss, float[] pos, float[] frc);
+    
+    // the plain loop of MassSpringSystem, one spring at a time
+    SpringKernel SCALAR = new SpringKernel() {
+        public void accumulate(MassSpringSystem mss, float[] pos, float[] frc) {
+            mss.accumulateSprings(null, 0, mss.getNumSprings(), pos, frc);
+        }
+    };
+    
+    /**
+     *  The SIMD kernel if this runtime supports it, else SCALAR. Run with
+     *  --add-modules jdk.incubator.vector to enable it.
+     */
+    static SpringKernel vectorized() {
+        // same package as this interface, whichever that is
+        String name = SpringKernel.class.getName();
+        name = name.substring(0, name.length() - "SpringKernel".length()) + "VectorSpringKernel";
+        try {
+            return (SpringKernel) Class.forName(name).getDeclaredConstructor().newInstance();
+        } catch (Throwable e) {
+            // not compiled in, module not resolved, or no usable SIMD width
+            return SCALAR;
+        }
+    }
+    
+}
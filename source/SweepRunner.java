@@ -0,0 +1,245 @@
+/*************************************************************************
+ *  Compilation:  javac -cp toxiclibscore.jar SweepRunner.java
+ *  Execution:    java -cp toxiclibscore.jar:. SweepRunner [options]
+ *  Dependencies: toxiclibscore.jar FormFindingEngine.java
+ *
+ *  Parameter sweep for form finding studies. Every combination of 
+ *  topology type, grid size, spring constant, rest length, gravity and
+ *  support layout is relaxed by its own FormFindingEngine, and one CSV
+ *  row is written per run as it completes.
+ *
+ *  Runs execute on a fixed pool with one thread per core. Before a run
+ *  is queued it reserves its estimated memory from a budget (half the 
+ *  maximum heap by default), so submission blocks, and large grids wait,
+ *  instead of piling up more live systems than the heap holds.
+ *
+ *  Options take comma separated lists (support layouts are separated 
+ *  by ';' since a layout may itself be an index list):
+ *      -topology  0,1,2,3      -n        8,16,32
+ *      -k         0.05,0.07    -rest     7
+ *      -gravity   0.2,1        -supports corners;edges;sides
+ *      -tol       0.001        -maxIter  1000000
+ *      -threads   <cores>      -out      <file> [stdout]
+ *************************************************************************/
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+public class SweepRunner {
+    
+    // parameter space
+    private int[] types_ = { 0 };
+    private int[] sizes_ = { 23 };
+    private float[] kSprings_ = { 0.07f };
+    private float[] restLengths_ = { 7f };
+    private float[] gravities_ = { 0.2f };
+    private String[] supports_ = { "corners" };
+    
+    private float tolerance_ = 1e-3f;
+    private long maxIterations_ = 1000000;
+    
+    private int threads_;
+    private long memoryBudget_;       // bytes that running systems may use
+    
+    public SweepRunner() {
+        threads_ = Runtime.getRuntime().availableProcessors();
+        memoryBudget_ = Runtime.getRuntime().maxMemory() / 2;
+    }
+    
+    // number of runs in the parameter space
+    public int size() {
+        return types_.length * sizes_.length * kSprings_.length 
+             * restLengths_.length * gravities_.length * supports_.length;
+    }
+    
+    /**
+     *  Engine for run r, decoding r as a mixed radix number over the 
+     *  parameter lists (support layout varies fastest).
+     */
+    public FormFindingEngine engine(int r) {
+        FormFindingEngine e = new FormFindingEngine();
+        
+        String sup = supports_[r % supports_.length];  r /= supports_.length;
+        float g    = gravities_[r % gravities_.length];  r /= gravities_.length;
+        float rest = restLengths_[r % restLengths_.length];  r /= restLengths_.length;
+        float ks   = kSprings_[r % kSprings_.length];  r /= kSprings_.length;
+        int n      = sizes_[r % sizes_.length];  r /= sizes_.length;
+        int type   = types_[r % types_.length];
+        
+        e.setTopologyType(type);
+        e.setGridSize(n, n);
+        e.setkSpring(ks);
+        e.setRestLength(rest);
+        e.setGravity(g);
+        if (Character.isDigit(sup.charAt(0))) e.setSupports(FormFindingCLI.parseSupports(sup));
+        else e.setSupportLayout(sup);
+        e.setTolerance(tolerance_);
+        e.setMaxIterations(maxIterations_);
+        return e;
+    }
+    
+    /**
+     *  Rough size of a run in bytes: flat state, masses, constraints and 
+     *  initial geometry per particle, packed parameters per spring, for 
+     *  the densest topology (type 3, about 4 springs per particle).
+     */
+    static long estimateBytes(int n) {
+        long M = 2L * n * n;
+        long S = 4L * n * n;
+        return M * 160 + S * 40 + 4096;
+    }
+    
+    public static String header() {
+        return "run,topology,numW,numH,kSpring,restLength,gravity,supports,"
+             + "particles,springs,converged,iterations,residual,sigmaFL,maxDisplacement,time";
+    }
+    
+    // relax run r and format its result row
+    private static String execute(int r, FormFindingEngine e) {
+        StringBuilder sb = new StringBuilder(160);
+        sb.append(r).append(',');
+        try {
+            e.build();
+            boolean converged = e.run();
+            MassSpringSystem mss = e.getSystem();
+            DynamicRelaxation dr = e.getRelaxation();
+            parameters(sb, e);
+            sb.append(mss.getNumMasses()).append(',').append(mss.getNumSprings()).append(',')
+              .append(converged).append(',').append(dr.getIterations()).append(',')
+              .append(dr.getResidual()).append(',').append(mss.getSumFL()).append(',')
+              .append(e.getMaxDisplacement()).append(',').append(dr.getWallTime());
+        } catch (RuntimeException ex) {
+            // the parameters are known, particles and springs to time are not
+            sb.setLength(0);
+            sb.append(r).append(',');
+            parameters(sb, e);
+            sb.append(",,false,,,,,");
+            System.err.println("run " + r + " failed: " + ex);
+        }
+        return sb.toString();
+    }
+    
+    // topology to supports columns, each followed by a comma
+    private static void parameters(StringBuilder sb, FormFindingEngine e) {
+        sb.append(e.getTopologyType()).append(',')
+          .append(e.numW()).append(',').append(e.numH()).append(',')
+          .append(e.getkSpring()).append(',').append(e.getRestLength()).append(',')
+          .append(e.getGravity()).append(',').append(e.getSupportLayout()).append(',');
+    }
+    
+    /**
+     *  Runs the whole sweep and writes one CSV row per run, in completion
+     *  order, after a header row.
+     */
+    public void run(Writer out) throws InterruptedException {
+        
+        final PrintWriter csv = new PrintWriter(out);
+        csv.println(header());
+        
+        final long unit = 1 << 20;    // budget is counted in MB permits
+        final int permits = (int) Math.max(1, memoryBudget_ / unit);
+        final Semaphore memory = new Semaphore(permits);
+        final Semaphore slots = new Semaphore(2 * threads_);
+        
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads_, threads_, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(2 * threads_));
+        
+        for (int r = 0, n = size(); r < n; r++) {
+            final int run = r;
+            final FormFindingEngine e = engine(r);
+            final int need = (int) Math.min(permits, Math.max(1, estimateBytes(Math.max(e.numW(), e.numH())) / unit));
+            
+            // back-pressure: wait for queue room and for memory
+            slots.acquire();
+            memory.acquire(need);
+            
+            pool.execute(new Runnable() {
+                public void run() {
+                    try {
+                        String row = execute(run, e);
+                        synchronized (csv) {
+                            csv.println(row);
+                            csv.flush();
+                        }
+                    } finally {
+                        memory.release(need);
+                        slots.release();
+                    }
+                }
+            });
+        }
+        
+        pool.shutdown();
+        pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        csv.flush();
+    }
+    
+    // Setters
+    
+    public void setTopologyTypes(int[] types)       {  types_ = types;  }
+    public void setGridSizes(int[] sizes)           {  sizes_ = sizes;  }
+    public void setkSprings(float[] ks)             {  kSprings_ = ks;  }
+    public void setRestLengths(float[] restLengths) {  restLengths_ = restLengths;  }
+    public void setGravities(float[] gravities)     {  gravities_ = gravities;  }
+    public void setSupportLayouts(String[] layouts) {  supports_ = layouts;  }
+    public void setTolerance(float tolerance)       {  tolerance_ = tolerance;  }
+    public void setMaxIterations(long n)            {  maxIterations_ = n;  }
+    public void setThreads(int threads)             {  threads_ = Math.max(1, threads);  }
+    public void setMemoryBudget(long bytes)         {  memoryBudget_ = bytes;  }
+    
+    static int[] parseInts(String str) {
+        String[] t = str.split(",");
+        int[] v = new int[t.length];
+        for (int i = 0; i < t.length; i++) v[i] = Integer.parseInt(t[i].trim());
+        return v;
+    }
+    
+    static float[] parseFloats(String str) {
+        String[] t = str.split(",");
+        float[] v = new float[t.length];
+        for (int i = 0; i < t.length; i++) v[i] = Float.parseFloat(t[i].trim());
+        return v;
+    }
+    
+    public static void main(String[] args) throws IOException, InterruptedException {
+        
+        SweepRunner sweep = new SweepRunner();
+        String out = null;
+        
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String opt = args[i], val = args[i + 1];
+            if      (opt.equals("-topology")) sweep.setTopologyTypes(parseInts(val));
+            else if (opt.equals("-n"))        sweep.setGridSizes(parseInts(val));
+            else if (opt.equals("-k"))        sweep.setkSprings(parseFloats(val));
+            else if (opt.equals("-rest"))     sweep.setRestLengths(parseFloats(val));
+            else if (opt.equals("-gravity"))  sweep.setGravities(parseFloats(val));
+            else if (opt.equals("-supports")) sweep.setSupportLayouts(val.split(";"));
+            else if (opt.equals("-tol"))      sweep.setTolerance(Float.parseFloat(val));
+            else if (opt.equals("-maxIter"))  sweep.setMaxIterations(Long.parseLong(val));
+            else if (opt.equals("-threads"))  sweep.setThreads(Integer.parseInt(val));
+            else if (opt.equals("-out"))      out = val;
+            else {
+                System.err.println("unknown option " + opt);
+                System.exit(2);
+            }
+        }
+        
+        Writer w = (out != null) ? new FileWriter(out) : new OutputStreamWriter(System.out);
+        long start = System.nanoTime();
+        try {
+            sweep.run(w);
+        } finally {
+            if (out != null) w.close();
+            else w.flush();
+        }
+        System.err.println(sweep.size() + " runs in " + (System.nanoTime() - start) * 1e-9 + "s");
+    }
+    
+}
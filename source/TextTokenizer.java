@@ -0,0 +1,191 @@
+/*************************************************************************
+ *  Dependencies: none
+ *
+ *  Minimal number tokenizer over a byte buffer, normally a memory-mapped
+ *  ASCII file. Numbers are separated by any run of blanks, commas or line
+ *  breaks, and '#' starts a comment that runs to the end of the line.
+ *  Integers and floats are parsed directly from the bytes, without
+ *  creating a String per line or per token, which is what keeps loading
+ *  of files with millions of records fast.
+ *************************************************************************/
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+public class TextTokenizer {
+
+    // powers of ten for the float parser
+    private static final double[] POW10 = new double[40];
+    static {
+        POW10[0] = 1;
+        for (int i = 1; i < POW10.length; i++) POW10[i] = POW10[i - 1] * 10;
+    }
+
+    private final ByteBuffer buf_;
+    private final int end_;
+    private int pos_;
+    private int line_ = 1;
+
+    public TextTokenizer(ByteBuffer buf) {
+        buf_ = buf;
+        pos_ = buf.position();
+        end_ = buf.limit();
+    }
+
+    /**
+     *  Maps a whole file read-only, little endian for binary layouts.
+     *  A mapping is limited to 2 GB.
+     */
+    public static MappedByteBuffer map(Path path) throws IOException {
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(path + " is larger than 2 GB");
+            }
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            buf.order(ByteOrder.LITTLE_ENDIAN);
+            return buf;
+        }
+    }
+
+    // true if the buffer starts with the given ASCII magic
+    public static boolean startsWith(ByteBuffer buf, String magic) {
+        if (buf.limit() < magic.length()) return false;
+        for (int i = 0; i < magic.length(); i++) {
+            if (buf.get(i) != magic.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    // skip separators and comments, true if another token follows
+    public boolean hasNext() {
+        while (pos_ < end_) {
+            byte c = buf_.get(pos_);
+            if (c == '\n') {
+                line_++;
+                pos_++;
+            } else if (c == ' ' || c == ',' || c == '\t' || c == '\r') {
+                pos_++;
+            } else if (c == '#') {
+                while (pos_ < end_ && buf_.get(pos_) != '\n') pos_++;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     *  @throws IllegalArgumentException if the next token is not an integer
+     */
+    public int nextInt() {
+        if (!hasNext()) throw error("unexpected end of file");
+
+        boolean neg = false;
+        byte c = buf_.get(pos_);
+        if (c == '-' || c == '+') {
+            neg = (c == '-');
+            pos_++;
+        }
+
+        long v = 0;
+        int start = pos_;
+        while (pos_ < end_) {
+            c = buf_.get(pos_);
+            if (c < '0' || c > '9') break;
+            v = v * 10 + (c - '0');
+            if (v > Integer.MAX_VALUE + 1L) throw error("integer out of range");
+            pos_++;
+        }
+        if (pos_ == start || !separatorAt(pos_)) throw error("expected an integer");
+
+        v = neg ? -v : v;
+        if (v > Integer.MAX_VALUE) throw error("integer out of range");
+        return (int) v;
+    }
+
+    /**
+     *  Parses [sign] digits [. digits] [e|E [sign] digits]
+     *
+     *  @throws IllegalArgumentException if the next token is not a number
+     */
+    public float nextFloat() {
+        if (!hasNext()) throw error("unexpected end of file");
+
+        boolean neg = false;
+        byte c = buf_.get(pos_);
+        if (c == '-' || c == '+') {
+            neg = (c == '-');
+            pos_++;
+        }
+
+        long mantissa = 0;
+        int digits = 0, scale = 0;
+        boolean any = false, dot = false;
+        while (pos_ < end_) {
+            c = buf_.get(pos_);
+            if (c >= '0' && c <= '9') {
+                any = true;
+                if (digits < 18) {
+                    mantissa = mantissa * 10 + (c - '0');
+                    if (mantissa != 0) digits++;
+                    if (dot) scale--;
+                } else if (!dot) {
+                    scale++;   // digits beyond long precision
+                }
+            } else if (c == '.' && !dot) {
+                dot = true;
+            } else {
+                break;
+            }
+            pos_++;
+        }
+        if (!any) throw error("expected a number");
+
+        if (pos_ < end_ && (c == 'e' || c == 'E')) {
+            pos_++;
+            boolean eneg = false;
+            if (pos_ < end_ && (buf_.get(pos_) == '-' || buf_.get(pos_) == '+')) {
+                eneg = buf_.get(pos_) == '-';
+                pos_++;
+            }
+            int exp = 0, start = pos_;
+            while (pos_ < end_ && (c = buf_.get(pos_)) >= '0' && c <= '9') {
+                if (exp < 1000) exp = exp * 10 + (c - '0');
+                pos_++;
+            }
+            if (pos_ == start) throw error("malformed exponent");
+            scale += eneg ? -exp : exp;
+        }
+        if (!separatorAt(pos_)) throw error("expected a number");
+
+        double v = mantissa;
+        if (scale > 0) {
+            v = (scale < POW10.length) ? v * POW10[scale] : Double.POSITIVE_INFINITY;
+        } else if (scale < 0) {
+            v = (-scale < POW10.length) ? v / POW10[-scale] : v * Math.pow(10, scale);
+        }
+        return (float) (neg ? -v : v);
+    }
+
+    // current line, for error messages
+    public int line() {  return line_;  }
+
+    private boolean separatorAt(int p) {
+        if (p >= end_) return true;
+        byte c = buf_.get(p);
+        return c == ' ' || c == ',' || c == '\t' || c == '\r' || c == '\n' || c == '#';
+    }
+
+    private IllegalArgumentException error(String msg) {
+        return new IllegalArgumentException(msg + " at line " + line_);
+    }
+
+    public static void main(String[] args) { }
+
+}
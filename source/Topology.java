@@ -1,22 +1,47 @@
 /*************************************************************************
- *  Dependencies: Edge.java
+ *  Dependencies: Edge.java TextTokenizer.java
  *
- *  Topology data structure implemented with an interna; list of Edge structs.
- *  Supported operations are adding a directed edge between two
- *  indices, and getters for the list of edges, number of edges and vertices
+ *  Topology data structure implemented with two parallel int arrays 
+ *  holding the start and end index of every edge. Supported operations 
+ *  are adding a directed edge between two indices, getters for the edge
+ *  endpoints, number of edges and vertices, and an optional compressed 
+ *  sparse row (CSR) adjacency built on demand.
+ *
+ *  Topologies can be loaded from a memory-mapped file in either of two
+ *  layouts, told apart by the first bytes:
+ *
+ *      text    V E, then E lines of "from to" (blank or comma separated,
+ *              '#' starts a comment)
+ *      binary  "DFTB", int version (1), int V, int E, then E pairs of
+ *              int from, int to, all little endian
  *  
  *  @author Alexandros Charidis, MIT
  *************************************************************************/
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 public class Topology {
 
-    private ArrayList<Edge<Integer>> adj_;  // internal edges container
+    private int[] from_;                    // start index of each edge
+    private int[] to_;                      // end index of each edge
     
     private int vertices_;                  // number of vertices
     private int edges_;                     // number of edges
     
+    private int[] adjStart_;                // CSR offsets (size V + 1)
+    private int[] adjVertex_;               // CSR neighbour indices (size 2 * E)
+    private int[] adjEdge_;                 // CSR incident edge ids (size 2 * E)
+    
+    private ArrayList<Edge<Integer>> edgeList_;  // boxed view for getEdges()
+    
     // validate that v is a valid index
     private void validate(int v) {
         if (v < 0 || v >= vertices_) {
@@ -24,14 +49,118 @@ public class Topology {
         }
     }
     
-    // construct topology from input txt file
-    public Topology(String str) { /* TO DO */ }
+    /**
+     *  Loads a topology from a text or binary edge list file. 
+     *
+     *  @throws java.io.UncheckedIOException if the file cannot be read
+     *  @throws java.lang.IllegalArgumentException if the file is malformed
+     *  @throws java.lang.IndexOutOfBoundsException if an edge index is not
+     *          between 0 and V
+     */
+    public Topology(String str) {
+        ByteBuffer buf;
+        try {
+            buf = TextTokenizer.map(Paths.get(str));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        
+        if (TextTokenizer.startsWith(buf, BINARY_MAGIC)) readBinary(buf, str);
+        else readText(buf);
+        
+        validateAll();
+    }
+    
+    // first bytes of the binary layout
+    public static final String BINARY_MAGIC = "DFTB";
+    
+    private void readText(ByteBuffer buf) {
+        TextTokenizer in = new TextTokenizer(buf);
+        vertices_ = in.nextInt();
+        edges_ = in.nextInt();
+        if (vertices_ < 0 || edges_ < 0) {
+            throw new IllegalArgumentException("negative vertex or edge count");
+        }
+        
+        from_ = new int[Math.max(edges_, 1)];
+        to_   = new int[Math.max(edges_, 1)];
+        for (int e = 0; e < edges_; e++) {
+            from_[e] = in.nextInt();
+            to_[e]   = in.nextInt();
+        }
+        if (in.hasNext()) {
+            throw new IllegalArgumentException("more than " + edges_ + " edges at line " + in.line());
+        }
+    }
+    
+    private void readBinary(ByteBuffer buf, String str) {
+        buf.position(BINARY_MAGIC.length());
+        int version = buf.getInt();
+        if (version != 1) {
+            throw new IllegalArgumentException("unsupported topology version " + version);
+        }
+        vertices_ = buf.getInt();
+        edges_ = buf.getInt();
+        if (vertices_ < 0 || edges_ < 0 || buf.remaining() != 8L * edges_) {
+            throw new IllegalArgumentException(str + " does not hold " + edges_ + " edges");
+        }
+        
+        from_ = new int[Math.max(edges_, 1)];
+        to_   = new int[Math.max(edges_, 1)];
+        for (int e = 0; e < edges_; e++) {
+            from_[e] = buf.getInt();
+            to_[e]   = buf.getInt();
+        }
+    }
+    
+    // validate all edges in one pass, reporting the first bad one
+    private void validateAll() {
+        int bad = 0;
+        for (int e = 0; e < edges_; e++) {
+            bad |= from_[e] | to_[e] | (vertices_ - 1 - from_[e]) | (vertices_ - 1 - to_[e]);
+        }
+        if (bad >= 0) return;
+        
+        for (int e = 0; e < edges_; e++) {
+            try {
+                validate(from_[e]);
+                validate(to_[e]);
+            } catch (IndexOutOfBoundsException ex) {
+                throw new IndexOutOfBoundsException("edge " + e + ": " + ex.getMessage());
+            }
+        }
+    }
+    
+    /**
+     *  Writes this topology in the binary layout read by Topology(String)
+     */
+    public void writeBinary(String str) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(16 + 8 * edges_).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < BINARY_MAGIC.length(); i++) buf.put((byte) BINARY_MAGIC.charAt(i));
+        buf.putInt(1).putInt(vertices_).putInt(edges_);
+        for (int e = 0; e < edges_; e++) {
+            buf.putInt(from_[e]).putInt(to_[e]);
+        }
+        buf.flip();
+        
+        try (FileChannel ch = FileChannel.open(Paths.get(str), StandardOpenOption.CREATE,
+                                                                 StandardOpenOption.TRUNCATE_EXISTING,
+                                                                 StandardOpenOption.WRITE)) {
+            while (buf.hasRemaining()) ch.write(buf);
+        }
+    }
     
     // empty Topology with V vertices
     public Topology(final int V) {
+        this(V, 16);
+    }
+    
+    // empty Topology with V vertices and room for capacity edges
+    public Topology(final int V, final int capacity) {
         vertices_ = V;
         edges_ = 0;
-        adj_ = new ArrayList<Edge<Integer>>();
+        from_ = new int[Math.max(capacity, 1)];
+        to_   = new int[Math.max(capacity, 1)];
     }
     
     // add directed edge v -> w
@@ -40,14 +169,89 @@ public class Topology {
         validate(v);
         validate(w);
         
-        Edge<Integer> e = new Edge<Integer>(v, w);
+        if (edges_ == from_.length) {
+            int cap = from_.length + (from_.length >> 1) + 1;
+            from_ = Arrays.copyOf(from_, cap);
+            to_   = Arrays.copyOf(to_, cap);
+        }
         
-        adj_.add(e);
+        from_[edges_] = v;
+        to_[edges_]   = w;
         edges_++;
+        
+        // invalidate derived structures
+        adjStart_ = null;
+        edgeList_ = null;
+    }
+    
+    // endpoints of edge e
+    public int from(int e) {  return from_[e];  }
+    public int to(int e)   {  return to_[e];    }
+    
+    /**
+     *  Builds the per-vertex adjacency in compressed sparse row form.
+     *  Every edge is listed under both of its endpoints, so the neighbours
+     *  of v are adjVertex_[adjStart_[v] .. adjStart_[v + 1]). Called lazily
+     *  by the adjacency getters and rebuilt only after new edges are added.
+     */
+    public void buildAdjacency() {
+        int[] start = new int[vertices_ + 1];
+        for (int e = 0; e < edges_; e++) {
+            start[from_[e] + 1]++;
+            start[to_[e] + 1]++;
+        }
+        for (int v = 0; v < vertices_; v++) {
+            start[v + 1] += start[v];
+        }
+        
+        int[] fill = Arrays.copyOf(start, vertices_);
+        int[] adjV = new int[2 * edges_];
+        int[] adjE = new int[2 * edges_];
+        for (int e = 0; e < edges_; e++) {
+            int a = from_[e], b = to_[e];
+            adjV[fill[a]] = b;  adjE[fill[a]++] = e;
+            adjV[fill[b]] = a;  adjE[fill[b]++] = e;
+        }
+        
+        adjStart_ = start;
+        adjVertex_ = adjV;
+        adjEdge_ = adjE;
+    }
+    
+    public int[] getAdjacencyStart() {
+        if (adjStart_ == null) buildAdjacency();
+        return adjStart_;
+    }
+    
+    public int[] getAdjacentVertices() {
+        if (adjStart_ == null) buildAdjacency();
+        return adjVertex_;
     }
     
+    public int[] getAdjacentEdges() {
+        if (adjStart_ == null) buildAdjacency();
+        return adjEdge_;
+    }
+    
+    public int degree(int v) {
+        validate(v);
+        int[] start = getAdjacencyStart();
+        return start[v + 1] - start[v];
+    }
+    
+    /**
+     *  Boxed list of edges, kept for callers written against the former
+     *  ArrayList backend. It is materialized on first use; hot loops should
+     *  iterate 0 .. E() - 1 with from(e) and to(e) instead.
+     */
     public ArrayList<Edge<Integer>> getEdges() {
-        return adj_;
+        if (edgeList_ == null) {
+            edgeList_ = new ArrayList<Edge<Integer>>(edges_);
+            for (int e = 0; e < edges_; e++) {
+                edgeList_.add(new Edge<Integer>(from_[e], to_[e]));
+            }
+        }
+        return edgeList_;
     }
     
     // number of vertices and edges
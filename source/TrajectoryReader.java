@@ -0,0 +1,192 @@
+/*************************************************************************
+ *  Dependencies: TrajectoryRecorder.java MeshExporter.java
+ *
+ *  Plays back a trajectory written by TrajectoryRecorder. Frames are read
+ *  with positional reads from the file channel, so files larger than a
+ *  memory mapping are fine. Reading the frames in order decodes one delta
+ *  per frame; a jump decodes forward from the key frame before the target.
+ *  No physics is evaluated, so replay and export run at disk speed.
+ *************************************************************************/
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+public class TrajectoryReader implements Closeable {
+
+    private final FileChannel channel_;
+    private int M_;
+    private float quantum_;
+    private int keyInterval_;
+    private int every_;
+
+    private long[] offsets_;          // file offset of each frame
+    private long[] steps_;            // simulation step of each frame
+    private int frames_;
+
+    private final int[] q_;           // quantized positions of frame current_
+    private int current_ = -1;
+    private ByteBuffer buf_ = ByteBuffer.allocate(0);
+
+    /**
+     *  @throws java.lang.IllegalArgumentException if the file is not a
+     *          trajectory
+     */
+    public TrajectoryReader(String file) throws IOException {
+        channel_ = FileChannel.open(Paths.get(file), StandardOpenOption.READ);
+        try {
+            ByteBuffer h = read(0, TrajectoryRecorder.HEADER_SIZE);
+            for (int i = 0; i < 4; i++) {
+                if (h.get(i) != TrajectoryRecorder.MAGIC.charAt(i)) {
+                    throw new IllegalArgumentException(file + " is not a trajectory");
+                }
+            }
+            h.position(4);
+            int version = h.getInt();
+            if (version != TrajectoryRecorder.VERSION) {
+                throw new IllegalArgumentException("unsupported trajectory version " + version);
+            }
+            M_ = h.getInt();
+            quantum_ = h.getFloat();
+            keyInterval_ = h.getInt();
+            every_ = h.getInt();
+
+            if (!readIndex()) scanFrames();
+        } catch (IOException | RuntimeException e) {
+            channel_.close();
+            throw e;
+        }
+        q_ = new int[3 * M_];
+    }
+
+    // index written by close(), false if the file has none
+    private boolean readIndex() throws IOException {
+        long size = channel_.size();
+        if (size < TrajectoryRecorder.HEADER_SIZE + 12) return false;
+
+        ByteBuffer t = read(size - 12, 12);
+        if (t.get(8) != 'D' || t.get(9) != 'F' || t.get(10) != 'T' || t.get(11) != 'E') return false;
+        long index = t.getLong(0);
+
+        ByteBuffer head = read(index, 8);
+        frames_ = head.getInt(4);
+        ByteBuffer entries = read(index + 8, 16 * frames_);
+        offsets_ = new long[frames_];
+        steps_ = new long[frames_];
+        for (int f = 0; f < frames_; f++) {
+            offsets_[f] = entries.getLong();
+            steps_[f] = entries.getLong();
+        }
+        return true;
+    }
+
+    // rebuild the index of an unfinished file from the frame lengths
+    private void scanFrames() throws IOException {
+        offsets_ = new long[64];
+        steps_ = new long[64];
+        frames_ = 0;
+
+        long size = channel_.size();
+        long at = TrajectoryRecorder.HEADER_SIZE;
+        while (at + 13 <= size) {
+            ByteBuffer head = read(at, 13);
+            int length = head.getInt(0);
+            if (length < 9 || at + 4 + length > size) break;  // torn last frame
+            if (frames_ == offsets_.length) {
+                offsets_ = Arrays.copyOf(offsets_, 2 * frames_);
+                steps_ = Arrays.copyOf(steps_, 2 * frames_);
+            }
+            offsets_[frames_] = at;
+            steps_[frames_] = head.getLong(5);
+            frames_++;
+            at += 4 + length;
+        }
+    }
+
+    private ByteBuffer read(long at, int n) throws IOException {
+        if (buf_.capacity() < n) {
+            buf_ = ByteBuffer.allocateDirect(n).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        buf_.clear().limit(n);
+        while (buf_.hasRemaining()) {
+            if (channel_.read(buf_, at + buf_.position()) < 0) {
+                throw new IOException("unexpected end of trajectory");
+            }
+        }
+        buf_.flip();
+        return buf_;
+    }
+
+    /**
+     *  Decodes frame f into dst as x y z triples (size 3 * M)
+     */
+    public void readFrame(int f, float[] dst) throws IOException {
+        if (f < 0 || f >= frames_) {
+            throw new IndexOutOfBoundsException("frame " + f + " is not between 0 and " + frames_);
+        }
+
+        // continue from the current frame when possible, else from a key frame
+        int from = (f >= current_ && f - current_ < keyInterval_) ? current_ + 1
+                                                                 : f - f % keyInterval_;
+        for (int g = from; g <= f; g++) decode(g);
+        current_ = f;
+
+        for (int k = 0; k < 3 * M_; k++) {
+            dst[k] = q_[k] * quantum_;
+        }
+    }
+
+    private void decode(int g) throws IOException {
+        long at = offsets_[g];
+        int length = read(at, 4).getInt(0);
+        ByteBuffer b = read(at + 4, length);
+
+        byte type = b.get();
+        b.getLong();
+        if (type == TrajectoryRecorder.KEY) {
+            b.asIntBuffer().get(q_);
+            return;
+        }
+        for (int k = 0; k < 3 * M_; k++) {
+            int v = 0, shift = 0, c;
+            do {
+                c = b.get();
+                v |= (c & 0x7F) << shift;
+                shift += 7;
+            } while ((c & 0x80) != 0);
+            q_[k] += (v >>> 1) ^ -(v & 1);
+        }
+    }
+
+    /**
+     *  Exports frames from .. to (inclusive) as meshes. The file name is
+     *  built with String.format(pattern, frame), e.g. "frame-%05d.stl".
+     */
+    public void exportFrames(int from, int to, int[] faces, String pattern) throws IOException {
+        float[] pos = new float[3 * M_];
+        for (int f = from; f <= to; f++) {
+            readFrame(f, pos);
+            new MeshExporter(pos, faces).write(String.format(pattern, f));
+        }
+    }
+
+    public void close() throws IOException {
+        channel_.close();
+    }
+
+    // Getters
+
+    public int getFrames()        {  return frames_;  }
+    public int getNumMasses()     {  return M_;  }
+    public long getStep(int f)    {  return steps_[f];  }
+    public int getInterval()      {  return every_;  }
+    public float getQuantum()     {  return quantum_;  }
+
+    public static void main(String[] args) { }
+
+}
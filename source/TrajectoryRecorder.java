@@ -0,0 +1,165 @@
+/*************************************************************************
+ *  Dependencies: MassSpringSystem.java ChannelWriter.java
+ *
+ *  Streams the positions of a mass spring system to a compact trajectory
+ *  file while it is simulated. Coordinates are quantized to a fixed
+ *  step and stored as the difference to the previous frame in zigzag
+ *  varints, which takes one or two bytes for most particles of a slowly
+ *  moving form. Every so many frames a key frame with absolute values is
+ *  written, and close() appends an index of frame offsets so a reader can
+ *  seek to any frame by decoding from the key frame before it.
+ *
+ *  Layout, all little endian:
+ *      header   "DFTR", int version (1), int M, float quantum,
+ *               int key interval, int steps between frames
+ *      frame    int length of the rest of the frame, byte type (0 key,
+ *               1 delta), long step, then 3M int32 (key) or 3M zigzag
+ *               varints (delta) of quantized x y z
+ *      index    "DFTI", int frames, then frames pairs of long offset,
+ *               long step
+ *      trailer  long index offset, "DFTE"
+ *
+ *  A file without trailer, e.g. after a crash, is still readable; the
+ *  reader rebuilds the index by walking the frame lengths.
+ *************************************************************************/
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+public class TrajectoryRecorder implements Closeable {
+
+    public static final String MAGIC = "DFTR";
+    public static final int VERSION = 1;
+    static final int HEADER_SIZE = 24;
+    static final byte KEY = 0, DELTA = 1;
+
+    private final ChannelWriter out_;
+    private final int M_;
+    private final float quantum_;      // quantization step of a coordinate
+    private final int keyInterval_;    // frames between two key frames
+    private final int every_;          // steps between two recorded frames
+
+    private final float[] pos_;        // positions of the system being recorded
+    private final int[] last_;         // quantized previous frame
+    private final int[] current_;
+
+    private long[] offsets_ = new long[64];
+    private long[] steps_ = new long[64];
+    private int frames_;
+
+    /**
+     *  @param file  trajectory file, created or truncated
+     *  @param M     number of particles
+     *  @param every record one frame every so many steps, see stepped()
+     *  @param quantum quantization step, e.g. 0.001 of a scene unit
+     */
+    public TrajectoryRecorder(String file, int M, int every, float quantum) throws IOException {
+        M_ = M;
+        every_ = Math.max(1, every);
+        quantum_ = quantum;
+        keyInterval_ = 64;
+        pos_ = new float[3 * M];
+        last_ = new int[3 * M];
+        current_ = new int[3 * M];
+
+        out_ = new ChannelWriter(file);
+        out_.putAscii(MAGIC);
+        out_.putInt(VERSION);
+        out_.putInt(M);
+        out_.putFloat(quantum);
+        out_.putInt(keyInterval_);
+        out_.putInt(every_);
+    }
+
+    /**
+     *  Called after every step (or batch of steps) with the total number
+     *  of steps taken. Records a frame whenever a multiple of the record
+     *  interval has been passed since the last call.
+     */
+    public void stepped(MassSpringSystem mss, long steps, int batch) throws IOException {
+        if (steps % every_ < batch) record(mss, steps);
+    }
+
+    // records the current positions as the next frame
+    public void record(MassSpringSystem mss, long step) throws IOException {
+        mss.copyPositions(pos_);
+
+        float inv = 1f / quantum_;
+        for (int k = 0; k < 3 * M_; k++) {
+            current_[k] = Math.round(pos_[k] * inv);
+        }
+
+        if (frames_ == offsets_.length) {
+            offsets_ = Arrays.copyOf(offsets_, 2 * frames_);
+            steps_ = Arrays.copyOf(steps_, 2 * frames_);
+        }
+        offsets_[frames_] = out_.position();
+        steps_[frames_] = step;
+
+        boolean key = frames_ % keyInterval_ == 0;
+        if (key) {
+            out_.putInt(1 + 8 + 12 * M_);
+            out_.reserve(9).put(KEY).putLong(step);
+            out_.put(current_, 0, 3 * M_);
+        } else {
+            // a first pass sizes the frame, the second encodes it
+            // straight into the writer's buffer
+            int length = 1 + 8;
+            for (int k = 0; k < 3 * M_; k++) {
+                length += varintSize(zigzag(current_[k] - last_[k]));
+            }
+            out_.putInt(length);
+            out_.reserve(9).put(DELTA).putLong(step);
+            for (int k = 0; k < 3 * M_; k++) {
+                putVarint(out_.reserve(5), zigzag(current_[k] - last_[k]));
+            }
+        }
+
+        System.arraycopy(current_, 0, last_, 0, 3 * M_);
+        frames_++;
+    }
+
+    /**
+     *  Appends the frame index and closes the file
+     */
+    public void close() throws IOException {
+        long index = out_.position();
+        out_.putAscii("DFTI");
+        out_.putInt(frames_);
+        for (int f = 0; f < frames_; f++) {
+            out_.reserve(16).putLong(offsets_[f]).putLong(steps_[f]);
+        }
+        out_.putLong(index);
+        out_.putAscii("DFTE");
+        out_.close();
+    }
+
+    static int zigzag(int v) {  return (v << 1) ^ (v >> 31);  }
+
+    static int varintSize(int v) {
+        int n = 1;
+        while ((v & ~0x7F) != 0) {
+            v >>>= 7;
+            n++;
+        }
+        return n;
+    }
+
+    static void putVarint(ByteBuffer buf, int v) {
+        while ((v & ~0x7F) != 0) {
+            buf.put((byte) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        buf.put((byte) v);
+    }
+
+    // Getters
+
+    public int getFrames()    {  return frames_;  }
+    public int getInterval()  {  return every_;  }
+
+    public static void main(String[] args) { }
+
+}
@@ -0,0 +1,132 @@
+/*************************************************************************
+ *  Compilation:  javac --add-modules jdk.incubator.vector VectorSpringKernel.java
+ *  Execution:    java --add-modules jdk.incubator.vector ...
+ *  Dependencies: jdk.incubator.vector (JDK 16 or later) SpringKernel.java
+ *                MassSpringSystem.java
+ *
+ *  Spring pass on SIMD lanes with the Vector API. The springs are taken
+ *  a vector at a time: endpoint coordinates and inverse masses are
+ *  gathered through index maps, one per endpoint and axis (gathers with
+ *  a non-zero array offset crash the C2 compiler of JDK 17 on AVX-512, 
+ *  so every map holds the final index), and difference, length, strain and
+ *  scaled force are computed lane-wise with the same operations, in the
+ *  same order, as MassSpringSystem.accumulateSprings(). The scatter into
+ *  the force array stays scalar and runs in spring order, because two
+ *  springs of a vector may share a particle; forces are therefore
+ *  bit-for-bit those of the scalar loop. The springs left over after the
+ *  last full vector go through the scalar loop.
+ *
+ *  This is the only class that refers to jdk.incubator.vector. It is not
+ *  needed to build the application; obtain it with
+ *  SpringKernel.vectorized(), which falls back to the scalar kernel.
+ *************************************************************************/
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+public class VectorSpringKernel implements SpringKernel {
+
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+
+    private final int L_;            // lanes per vector
+
+    private int[] springFrom_;       // spring arrays the index maps were built for
+    private int[] fromX_, fromY_, fromZ_;  // coordinate indices of each spring's ends
+    private int[] toX_, toY_, toZ_;
+
+    // lane results handed to the scalar scatter
+    private final float[] ax_, ay_, az_, bx_, by_, bz_;
+
+    /**
+     *  @throws java.lang.UnsupportedOperationException if the preferred
+     *          vector holds a single float
+     */
+    public VectorSpringKernel() {
+        L_ = SPECIES.length();
+        if (L_ < 2) throw new UnsupportedOperationException("no SIMD lanes for float");
+        ax_ = new float[L_];  ay_ = new float[L_];  az_ = new float[L_];
+        bx_ = new float[L_];  by_ = new float[L_];  bz_ = new float[L_];
+    }
+
+    // index maps from coordinates to springs, rebuilt after setupSprings()
+    private void index(MassSpringSystem mss) {
+        int[] from = mss.getSpringFrom(), to = mss.getSpringTo();
+        int S = mss.getNumSprings();
+        fromX_ = new int[S];  fromY_ = new int[S];  fromZ_ = new int[S];
+        toX_ = new int[S];    toY_ = new int[S];    toZ_ = new int[S];
+        for (int s = 0; s < S; s++) {
+            fromX_[s] = from[s] * 3;  fromY_[s] = fromX_[s] + 1;  fromZ_[s] = fromX_[s] + 2;
+            toX_[s] = to[s] * 3;      toY_[s] = toX_[s] + 1;      toZ_[s] = toX_[s] + 2;
+        }
+        springFrom_ = from;
+    }
+
+    public void accumulate(MassSpringSystem mss, float[] pos, float[] frc) {
+
+        if (springFrom_ != mss.getSpringFrom() || fromX_.length != mss.getNumSprings()) index(mss);
+
+        final int S = mss.getNumSprings();
+        final int[] from = mss.getSpringFrom(), to = mss.getSpringTo();
+        final int[] fromX = fromX_, fromY = fromY_, fromZ = fromZ_;
+        final int[] toX = toX_, toY = toY_, toZ = toZ_;
+        final float[] invMass = mss.getInverseMasses();
+        final float[] ks = mss.getSpringConstants(), rest = mss.getRestLengths();
+        final float[] sF = mss.getSpringForces(), sL = mss.getSpringLengths();
+
+        final FloatVector zero = FloatVector.zero(SPECIES);
+        FloatVector maxStrain = zero;
+        double sumFL = 0;
+
+        int bound = SPECIES.loopBound(S);
+        for (int k = 0; k < bound; k += L_) {
+
+            FloatVector dx = FloatVector.fromArray(SPECIES, pos, 0, toX, k).sub(FloatVector.fromArray(SPECIES, pos, 0, fromX, k));
+            FloatVector dy = FloatVector.fromArray(SPECIES, pos, 0, toY, k).sub(FloatVector.fromArray(SPECIES, pos, 0, fromY, k));
+            FloatVector dz = FloatVector.fromArray(SPECIES, pos, 0, toZ, k).sub(FloatVector.fromArray(SPECIES, pos, 0, fromZ, k));
+
+            FloatVector dist = dx.mul(dx).add(dy.mul(dy)).add(dz.mul(dz)).sqrt().add(1e-6f);
+
+            FloatVector ia = FloatVector.fromArray(SPECIES, invMass, 0, from, k);
+            FloatVector ib = FloatVector.fromArray(SPECIES, invMass, 0, to, k);
+            FloatVector r  = FloatVector.fromArray(SPECIES, rest, k);
+            FloatVector distStrength = dist.sub(r).div(dist.mul(ia.add(ib))).mul(FloatVector.fromArray(SPECIES, ks, k));
+
+            dist.intoArray(sL, k);  // for accumulating Sigma FL
+            distStrength.intoArray(sF, k);
+
+            sumFL += distStrength.mul(dist).reduceLanes(VectorOperators.ADD);
+            VectorMask<Float> stretched = r.compare(VectorOperators.GT, 0f);
+            maxStrain = maxStrain.max(zero.blend(dist.sub(r).abs().div(r), stretched));
+
+            FloatVector ka = distStrength.mul(ia);
+            dx.mul(ka).intoArray(ax_, 0);
+            dy.mul(ka).intoArray(ay_, 0);
+            dz.mul(ka).intoArray(az_, 0);
+
+            FloatVector kb = distStrength.neg().mul(ib);
+            dx.mul(kb).intoArray(bx_, 0);
+            dy.mul(kb).intoArray(by_, 0);
+            dz.mul(kb).intoArray(bz_, 0);
+
+            // scatter in spring order, lanes may share particles
+            for (int l = 0; l < L_; l++) {
+                int a = fromX[k + l], b = toX[k + l];
+                frc[a] += ax_[l];  frc[a + 1] += ay_[l];  frc[a + 2] += az_[l];
+                frc[b] += bx_[l];  frc[b + 1] += by_[l];  frc[b + 2] += bz_[l];
+            }
+        }
+
+        mss.addSpringMetrics(sumFL, maxStrain.reduceLanes(VectorOperators.MAX));
+
+        // remaining springs one at a time
+        if (bound < S) mss.accumulateSprings(null, bound, S, pos, frc);
+
+    }
+
+    public int lanes() {  return L_;  }
+
+    public static void main(String[] args) { }
+
+}
@@ -0,0 +1,69 @@
+/*************************************************************************
+ *  Dependencies: MassSpringSystem.java  Constraints.java
+ *
+ *  Velocity Verlet in kick-drift-kick form:
+ *      v' = v + h/2 * F(x, v)
+ *      x  = x + h * v'
+ *      v  = v' + h/2 * F(x, v')
+ *  Second order and symplectic. The force at the end of a step is kept
+ *  and reused for the first kick of the next one, so every step costs a
+ *  single force evaluation. It is evaluated afresh when the system was
+ *  edited in between (see MassSpringSystem.getModCount()).
+ *************************************************************************/
+
+public class VelocityVerlet implements Integrator {
+    
+    private float[] acc_;              // force at the end of the last step
+    private MassSpringSystem owner_;   // system acc_ belongs to
+    private long modCount_;            // its edit count when acc_ was computed
+    
+    public float step(MassSpringSystem mss, final float h) {
+        float[] pos = mss.getPositions();
+        float[] vel = mss.getVelocities();
+        float[] frc = mss.getForces();
+        
+        Constraints con = mss.getConstraints();
+        byte[] mask = con.getMask();
+        
+        int n = 3 * mss.getNumMasses();
+        float hh = 0.5f * h;
+        
+        // first kick needs F(x, v); reuse it from the previous step if we can
+        if (owner_ != mss || modCount_ != mss.getModCount() || acc_ == null || acc_.length != n) {
+            acc_ = new float[n];
+            mss.computeForces(pos, vel);
+            System.arraycopy(frc, 0, acc_, 0, n);
+            owner_ = mss;
+        }
+        
+        // kick and drift
+        for (int i = 0; i < n; i++) {
+            vel[i] += acc_[i] * hh;
+            pos[i] += vel[i] * h;
+        }
+        
+        // supports must be in place before forces are evaluated
+        for (int i = 0, m = mss.getNumMasses(); i < m; i++) {
+            if (mask[i] != 0) con.apply(i, pos, vel);
+        }
+        
+        // second kick with the new force
+        mss.computeForces(pos, vel);
+        for (int i = 0; i < n; i++) {
+            vel[i] += frc[i] * hh;
+        }
+        System.arraycopy(frc, 0, acc_, 0, n);
+        
+        for (int i = 0, m = mss.getNumMasses(); i < m; i++) {
+            if (mask[i] != 0) con.apply(i, pos, vel);
+        }
+        modCount_ = mss.getModCount();
+        return h;
+    }
+    
+    // drop the cached force, e.g. after writing into getPositions() directly
+    public void reset() {  owner_ = null;  }
+    
+    public static void main(String[] args) { }
+    
+}